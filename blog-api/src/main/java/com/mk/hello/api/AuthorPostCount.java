@@ -0,0 +1,24 @@
+package com.mk.hello.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import javax.annotation.concurrent.Immutable;
+
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Number of posts of an author.
+ */
+@Immutable
+@JsonDeserialize
+@Value
+@AllArgsConstructor(onConstructor = @__(@JsonCreator))
+public final class AuthorPostCount {
+
+    @NonNull
+    String author;
+    long posts;
+}
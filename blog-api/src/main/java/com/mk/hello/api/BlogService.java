@@ -16,6 +16,11 @@ import static com.lightbend.lagom.javadsl.api.Service.*;
 
 /**
  * Exposes the blog microservice API. This API is adapted from the Lagom documentation.
+ * <p>
+ * addPost, updatePost and deletePost respond with an X-Consistency-Token header. The list,
+ * search and count queries sent with that header wait, for a bounded time, until the write is
+ * visible to them. A retried addPost or an updatePost that changes nothing writes nothing and
+ * responds without the header.
  *
  * @author Matt Sicker
  */
@@ -29,11 +34,25 @@ public interface BlogService extends Service {
    */
   ServiceCall<NotUsed, Optional<PostContent>> getPost(String id);
 
+  /**
+   * Gets the blog posts for the given IDs in one call, in the order of the IDs. IDs without a
+   * post come back without content. Example:
+   * curl -H 'content-type: application/json' -X POST
+   * -d '["12345678-1234-1234-1234-1234567890ab", "12345678-1234-1234-1234-1234567890ac"]'
+   * http://localhost:9000/api/blog/lookup/posts
+   */
+  ServiceCall<PSequence<String>, PSequence<PostLookup>> getPosts();
+
   /**
    * Creates a new blog post and returns the ID of the newly created post. Example:
    * curl -H 'content-type: application/json' -X POST
    * -d '{"title": "Some Title", "body": "Some body", "author": "Some Guy"}'
    * http://localhost:9000/api/blog/
+   * <p>
+   * A client may send an Idempotency-Key header, retrying with the same key returns the ID of
+   * the post created by the first attempt instead of creating another one. Keys are scoped to the
+   * author of the post and honoured for blog.idempotency.retention, even if the post was deleted
+   * meanwhile.
    */
   ServiceCall<PostContent, String> addPost();
 
@@ -43,6 +62,10 @@ public interface BlogService extends Service {
    * -d '{"title": "Some Title", "body": "Some body"}'
    * http://localhost:9000/api/blog/12345678-1234-1234-1234-1234567890ab
    *
+   * <p>
+   * Updates that do not change the post and retries carrying the Idempotency-Key header of one
+   * of the recent updates of the post are acknowledged without being applied again.
+   *
    * @param id id of blog post to updatePost
    */
   ServiceCall<UpdateContent, Done> updatePost(String id);
@@ -74,21 +97,143 @@ public interface BlogService extends Service {
    */
   ServiceCall<NotUsed, PSequence<PostSummary>> getPostsByAuthor(String author, Integer pageNo, Integer pageSize);
 
+  /**
+   * Gets one page of blog posts, continuing from the token returned with the previous page.
+   * Every page costs the same regardless of how deep into the table it is. Example:
+   * curl http://localhost:9000/api/blog/cursor/pageSize/:pageSize?pageToken=:pageToken
+   *
+   * @param pageSize - limit to this pageSize
+   * @param pageToken - nextPageToken of the previous page, absent for the first page
+   */
+  ServiceCall<NotUsed, PostSummaryPage> getAllPostsPage(Integer pageSize, Optional<String> pageToken);
+
+  /**
+   * Gets one page of blog posts by author, newest first, continuing from the token returned
+   * with the previous page. Example:
+   * curl http://localhost:9000/api/blog/author/:author/cursor/pageSize/:pageSize?pageToken=:pageToken
+   *
+   * @param author - search by author
+   * @param pageSize - limit to this pageSize
+   * @param pageToken - nextPageToken of the previous page, absent for the first page
+   */
+  ServiceCall<NotUsed, PostSummaryPage> getPostsByAuthorPage(String author, Integer pageSize, Optional<String> pageToken);
+
+  /**
+   * Gets one page of the most recently created blog posts, newest first, continuing from the
+   * token returned with the previous page. Fails with 503 Service Unavailable while the timeline
+   * is being built. Example:
+   * curl http://localhost:9000/api/blog/recent/pageSize/:pageSize?pageToken=:pageToken
+   *
+   * @param pageSize - limit to this pageSize
+   * @param pageToken - nextPageToken of the previous page, absent for the first page
+   */
+  ServiceCall<NotUsed, PostSummaryPage> getRecentPosts(Integer pageSize, Optional<String> pageToken);
+
+  /**
+   * Gets one page of the blog posts containing every word of the query in their title or body,
+   * best matches first, continuing from the token returned with the previous page. Words in the
+   * title weigh more than words in the body. Fails with 503 Service Unavailable while the index is
+   * being built. Example:
+   * curl http://localhost:9000/api/blog/search/pageSize/:pageSize?query=:query&pageToken=:pageToken
+   *
+   * @param query - words to search for
+   * @param pageSize - limit to this pageSize
+   * @param pageToken - nextPageToken of the previous page, absent for the first page
+   */
+  ServiceCall<NotUsed, PostSummaryPage> searchPosts(String query, Integer pageSize, Optional<String> pageToken);
+
+  /**
+   * Gets the number of posts of the author. Fails with 503 Service Unavailable while the counts
+   * are being built. Example:
+   * curl http://localhost:9000/api/blog/author/:author/count
+   *
+   * @param author - count the posts of this author
+   */
+  ServiceCall<NotUsed, AuthorPostCount> countPostsByAuthor(String author);
+
+  /**
+   * Gets the k authors with the most posts, most posts first. Fails with 503 Service Unavailable
+   * while the counts are being built. Example:
+   * curl http://localhost:9000/api/blog/top-authors/:k
+   *
+   * @param k - number of authors
+   */
+  ServiceCall<NotUsed, PSequence<AuthorPostCount>> topAuthors(Integer k);
+
+  /**
+   * Streams a bounded snapshot of blog posts followed by every post that is added, updated or
+   * deleted (with deleted set) from then on. The stream stays open until the client cancels it.
+   */
   ServiceCall<NotUsed, Source<PostSummary, ?>> getLivePosts();
 
+  /**
+   * Same as {@link #getLivePosts()}, but only for the posts of the author sent in the request.
+   */
   ServiceCall<String, Source<PostSummary, ?>> getLivePostsByAuthor();
 
+  /**
+   * Creates the posts streamed in the request and streams back their IDs in the same order.
+   * Posts are created concurrently up to blog.ingest.parallelism, the request stream is
+   * backpressured while that many are pending.
+   * <p>
+   * With an Idempotency-Key header, every post is keyed by the key, its author and its position
+   * in the stream, so re-running an interrupted load with the same key within
+   * blog.idempotency.retention does not create duplicates.
+   */
+  ServiceCall<Source<PostContent, NotUsed>, Source<String, NotUsed>> addPosts();
+
+  /**
+   * Gets the hit, miss and eviction counters of the post cache on the node serving the call. Example:
+   * curl http://localhost:9000/api/blog/stats/post-cache
+   */
+  ServiceCall<NotUsed, PostCacheStats> getPostCacheStats();
+
+  /**
+   * Gets the progress of the read-side processors running on the node serving the call, per
+   * processor and shard tag: last processed offset, estimated lag, throughput and handler
+   * latency. Example:
+   * curl http://localhost:9000/api/blog/stats/projections
+   */
+  ServiceCall<NotUsed, PSequence<ProjectionStats>> getProjectionStats();
+
+  /**
+   * Starts rebuilding the read side from the journal: the post summaries, the timeline, the search
+   * index and the author counts are replayed into new tables, the queries keep reading the current
+   * ones until the new ones have caught up. Fails if a rebuild is already running in the cluster.
+   * Example:
+   * curl -X POST http://localhost:9000/api/blog/admin/rebuild
+   */
+  ServiceCall<NotUsed, RebuildStatus> startRebuild();
+
+  /**
+   * Gets the progress of the last rebuild started in the cluster. Example:
+   * curl http://localhost:9000/api/blog/admin/rebuild
+   */
+  ServiceCall<NotUsed, RebuildStatus> getRebuildStatus();
+
   @Override
   default Descriptor descriptor() {
     return named("blog").withCalls(
             restCall(Method.GET, "/api/blog/:id", this::getPost),
+            restCall(Method.POST, "/api/blog/lookup/posts", this::getPosts),
             restCall(Method.POST, "/api/blog/", this::addPost),
             restCall(Method.PUT, "/api/blog/:id", this::updatePost),
             restCall(Method.DELETE, "/api/blog/:id", this::deletePost),
             restCall(Method.GET, "/api/blog/pageNo/:pageNo/pageSize/:pageSize", this::getAllPosts),
             restCall(Method.GET, "/api/blog/author/:author/pageNo/:pageNo/pageSize/:pageSize", this::getPostsByAuthor),
+            restCall(Method.GET, "/api/blog/cursor/pageSize/:pageSize?pageToken", this::getAllPostsPage),
+            restCall(Method.GET, "/api/blog/author/:author/cursor/pageSize/:pageSize?pageToken", this::getPostsByAuthorPage),
+            restCall(Method.GET, "/api/blog/recent/pageSize/:pageSize?pageToken", this::getRecentPosts),
+            restCall(Method.GET, "/api/blog/search/pageSize/:pageSize?query&pageToken", this::searchPosts),
+            restCall(Method.GET, "/api/blog/author/:author/count", this::countPostsByAuthor),
+            restCall(Method.GET, "/api/blog/top-authors/:k", this::topAuthors),
             namedCall("livePosts", this::getLivePosts),
-            namedCall("livePostsByAuthor", this::getLivePostsByAuthor)
+            namedCall("livePostsByAuthor", this::getLivePostsByAuthor),
+            namedCall("addPosts", this::addPosts),
+            restCall(Method.GET, "/api/blog/stats/post-cache", this::getPostCacheStats),
+            restCall(Method.GET, "/api/blog/stats/projections", this::getProjectionStats),
+            restCall(Method.POST, "/api/blog/admin/rebuild", this::startRebuild),
+            restCall(Method.GET, "/api/blog/admin/rebuild", this::getRebuildStatus)
     ).withAutoAcl(true);
   }
 }
\ No newline at end of file
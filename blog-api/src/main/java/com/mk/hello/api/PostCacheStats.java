@@ -0,0 +1,26 @@
+package com.mk.hello.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import javax.annotation.concurrent.Immutable;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Counters of the node local blog post cache, used for sizing it.
+ */
+@Immutable
+@JsonDeserialize
+@Value
+@AllArgsConstructor(onConstructor = @__(@JsonCreator))
+public final class PostCacheStats {
+
+    long hits;
+    long misses;
+    long evictions;
+    long size;
+    long weight;
+    long maxWeight;
+}
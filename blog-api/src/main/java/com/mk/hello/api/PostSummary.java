@@ -28,4 +28,12 @@ public final class PostSummary {
     String id;
     @NonNull
     String title;
+    /**
+     * Only set on live post streams, for a post that has just been deleted.
+     */
+    boolean deleted;
+
+    public PostSummary(String id, String title) {
+        this(id, title, false);
+    }
 }
@@ -0,0 +1,29 @@
+package com.mk.hello.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import java.util.Optional;
+
+import javax.annotation.concurrent.Immutable;
+
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.Value;
+import org.pcollections.PSequence;
+
+/**
+ * One page of blog post summaries together with the opaque token for the next page.
+ * The token is absent once the last page has been returned.
+ */
+@Immutable
+@JsonDeserialize
+@Value
+@AllArgsConstructor(onConstructor = @__(@JsonCreator))
+public final class PostSummaryPage {
+
+    @NonNull
+    PSequence<PostSummary> posts;
+
+    Optional<String> nextPageToken;
+}
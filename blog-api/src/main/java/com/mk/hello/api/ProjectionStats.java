@@ -0,0 +1,50 @@
+package com.mk.hello.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import java.util.Optional;
+
+import javax.annotation.concurrent.Immutable;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Progress of a read-side processor on one shard tag, as seen by the node running it.
+ */
+@Immutable
+@JsonDeserialize
+@Value
+@AllArgsConstructor(onConstructor = @__(@JsonCreator))
+public final class ProjectionStats {
+
+    String processor;
+    String tag;
+    /**
+     * Offset of the last processed event, empty before the first one.
+     */
+    Optional<String> lastOffset;
+    /**
+     * Events processed since the node started running the processor for the tag.
+     */
+    long events;
+    /**
+     * Events in the journal of the tag after the last processed one, counted up to 10000.
+     */
+    long lagEvents;
+    /**
+     * Time between the last processed event and the newest event of the tag in the journal.
+     */
+    long lagMillis;
+    /**
+     * Over the last minute.
+     */
+    double eventsPerSecond;
+    /**
+     * Handler latency percentiles over the most recent writes, in microseconds.
+     */
+    long latencyP50Micros;
+    long latencyP95Micros;
+    long latencyP99Micros;
+}
@@ -0,0 +1,38 @@
+package com.mk.hello.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import java.util.Optional;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.pcollections.PSequence;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Progress of the last rebuild of the blog read side in the cluster.
+ */
+@Immutable
+@JsonDeserialize
+@Value
+@AllArgsConstructor(onConstructor = @__(@JsonCreator))
+public final class RebuildStatus {
+
+    /**
+     * One of idle, replaying, catching-up, switching, done or failed.
+     */
+    String phase;
+    /**
+     * Generation of the tables the rebuild writes, the projections read it once it is done.
+     */
+    int generation;
+    long elapsedMillis;
+    /**
+     * Offset ids of the rebuilt projections.
+     */
+    PSequence<String> projections;
+    Optional<String> error;
+}
@@ -0,0 +1,176 @@
+package com.mk.hello.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraReadSide;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+
+import akka.Done;
+import org.pcollections.PSequence;
+
+import javax.inject.Inject;
+
+/**
+ * Maintains the number of posts of every author, split by shard tag: author_post_counts holds
+ * the count of an author per tag and author_rank_by_tag the authors of a tag ordered by their
+ * count there (see {@link AuthorCounts}), author_count_tags lists the tags counted so far.
+ * <p>
+ * The rows of a tag are only written by the processor of the tag, one event at a time, so the
+ * counts are read, changed and written back in the same batch as the offset. A count is changed
+ * exactly once per event, also when the processor is restarted in the middle of a batch.
+ * <p>
+ * A post added before a resize of the shards is counted under a tag of the earlier count, and
+ * its delete after the resize under a tag of the new count, so the count of an author on a tag
+ * can be negative. Only the positive counts are ranked, the sum of the rows is the count.
+ * <p>
+ * The tables are written in the generation of {@link ReadTables} current when the handler starts.
+ */
+public class AuthorCountEventProcessor extends ReadSideProcessor<BlogEvent> implements Projection {
+
+    static final String OFFSET_ID = "author_count_offset";
+
+    private final CassandraSession session;
+    private final CassandraReadSide readSide;
+    private final ProjectionProgress progress;
+    private final ProjectionMetrics metrics;
+    private final ReadSidePauses pauses;
+    private final ReadTables tables;
+    private final BlogEventFeed feed;
+
+    private Projection.Writer writer = null; // initialized in prepare
+
+    @Inject
+    public AuthorCountEventProcessor(CassandraSession session, CassandraReadSide readSide,
+            ProjectionProgress progress, ProjectionMetrics metrics, ReadSidePauses pauses,
+            ReadTables tables, BlogEventFeed feed) {
+        this.session = session;
+        this.readSide = readSide;
+        this.progress = progress;
+        this.metrics = metrics;
+        this.pauses = pauses;
+        this.tables = tables;
+        this.feed = feed;
+    }
+
+    @Override
+    public PSequence<AggregateEventTag<BlogEvent>> aggregateTags() {
+        return BlogEventTag.TAGS.allTags();
+    }
+
+    @Override
+    public ReadSideHandler<BlogEvent> buildHandler() {
+        return BlogEventTag.TAGS.withHandover(feed.handoverBarrier(OFFSET_ID), pauses.pausable(OFFSET_ID, metrics.instrumented(OFFSET_ID, progress.publishing(ProjectionProgress.AUTHOR_COUNT, readSide.<BlogEvent>builder(OFFSET_ID)
+                .setGlobalPrepare(() -> tables.load(OFFSET_ID).thenCompose(this::createTables))
+                .setPrepare(tag -> tables.load(OFFSET_ID).thenCompose(generation -> writer(generation, tag)).thenApply(w -> {
+                    writer = w;
+                    return Done.getInstance();
+                }))
+                .setEventHandler(BlogEvent.PostAdded.class, (event, offset) -> writer.statements(event, offset))
+                .setEventHandler(BlogEvent.PostDeleted.class, (event, offset) -> writer.statements(event, offset))
+                .build()))));
+    }
+
+    @Override
+    public String offsetId() {
+        return OFFSET_ID;
+    }
+
+    @Override
+    public CompletionStage<Done> createTables(ReadTables.Generation generation) {
+        // @formatter:off
+        return session.executeCreateTable(
+                "CREATE TABLE IF NOT EXISTS " + generation.table("author_post_counts") + " ("
+                        + "author text, tag text, posts bigint, "
+                        + "PRIMARY KEY (author, tag))")
+        .thenCompose(done -> session.executeCreateTable(
+                "CREATE TABLE IF NOT EXISTS " + generation.table("author_rank_by_tag") + " ("
+                        + "tag text, posts bigint, author text, "
+                        + "PRIMARY KEY (tag, posts, author)) "
+                        + "WITH CLUSTERING ORDER BY (posts DESC, author ASC)"))
+        .thenCompose(done -> session.executeCreateTable(
+                "CREATE TABLE IF NOT EXISTS " + generation.table("author_count_tags") + " ("
+                        + "bucket int, tag text, "
+                        + "PRIMARY KEY (bucket, tag))"));
+        // @formatter:on
+    }
+
+    @Override
+    public CompletionStage<Projection.Writer> writer(ReadTables.Generation generation, AggregateEventTag<BlogEvent> tag) {
+        String counts = generation.table("author_post_counts");
+        String ranks = generation.table("author_rank_by_tag");
+        CountWriter writer = new CountWriter(tag.tag());
+        // the tags of earlier shard counts keep their rows, the ranking reads all tags listed here
+        return session.executeWrite("INSERT INTO " + generation.table("author_count_tags") + " (bucket, tag) VALUES (?, ?)",
+                AuthorCounts.TAGS_BUCKET, tag.tag()).thenCompose(done ->
+                session.prepare("SELECT posts FROM " + counts + " WHERE author = ? and tag = ?")
+        ).thenCompose(ps -> {
+            writer.selectCountPreparedStatement = ps;
+            return session.prepare("INSERT INTO " + counts + " (author, tag, posts) VALUES (?, ?, ?)");
+        }).thenCompose(ps -> {
+            writer.insertCountPreparedStatement = ps;
+            return session.prepare("DELETE FROM " + counts + " WHERE author = ? and tag = ?");
+        }).thenCompose(ps -> {
+            writer.deleteCountPreparedStatement = ps;
+            return session.prepare("INSERT INTO " + ranks + " (tag, posts, author) VALUES (?, ?, ?)");
+        }).thenCompose(ps -> {
+            writer.insertRankPreparedStatement = ps;
+            return session.prepare("DELETE FROM " + ranks + " WHERE tag = ? and posts = ? and author = ?");
+        }).thenApply(ps -> {
+            writer.deleteRankPreparedStatement = ps;
+            return writer;
+        });
+    }
+
+    private final class CountWriter implements Projection.Writer {
+
+        private final String tag;
+        private PreparedStatement selectCountPreparedStatement = null;
+        private PreparedStatement insertCountPreparedStatement = null;
+        private PreparedStatement deleteCountPreparedStatement = null;
+        private PreparedStatement insertRankPreparedStatement = null;
+        private PreparedStatement deleteRankPreparedStatement = null;
+
+        CountWriter(String tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        public CompletionStage<List<BoundStatement>> statements(BlogEvent event, Offset offset) {
+            if (event instanceof BlogEvent.PostAdded) {
+                return count(((BlogEvent.PostAdded) event).getContent().getAuthor(), 1);
+            } else if (event instanceof BlogEvent.PostDeleted) {
+                return count(((BlogEvent.PostDeleted) event).getAuthor(), -1);
+            }
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        private CompletionStage<List<BoundStatement>> count(String author, long delta) {
+            return session.selectOne(selectCountPreparedStatement.bind(author, tag)).thenApply(row -> {
+                long previous = row.map(r -> r.getLong("posts")).orElse(0L);
+                long posts = previous + delta;
+                List<BoundStatement> statements = new ArrayList<>();
+                if (previous > 0) {
+                    statements.add(deleteRankPreparedStatement.bind(tag, previous, author));
+                }
+                if (posts != 0) {
+                    statements.add(insertCountPreparedStatement.bind(author, tag, posts));
+                } else {
+                    statements.add(deleteCountPreparedStatement.bind(author, tag));
+                }
+                if (posts > 0) {
+                    statements.add(insertRankPreparedStatement.bind(tag, posts, author));
+                }
+                return statements;
+            });
+        }
+    }
+}
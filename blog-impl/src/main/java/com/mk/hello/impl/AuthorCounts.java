@@ -0,0 +1,144 @@
+package com.mk.hello.impl;
+
+import com.datastax.driver.core.Row;
+import com.lightbend.lagom.javadsl.api.transport.BadRequest;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.mk.hello.api.AuthorPostCount;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+/**
+ * Queries the post counts of the {@link AuthorCountEventProcessor}. The count of an author is the
+ * sum of its rows in author_post_counts, one per shard tag.
+ * <p>
+ * The top authors are found with the threshold algorithm over the per tag rankings: the rankings
+ * are read from the top down, the full counts of the authors seen are looked up, and the reads
+ * stop once the k-th best full count is at least the sum of the lowest counts read from every
+ * ranking, which no author not seen yet can beat. The count of an author on a tag can be
+ * negative after a resize of the shards (see {@link AuthorCountEventProcessor}), those rows are
+ * not ranked but are part of the sum.
+ */
+final class AuthorCounts {
+
+  // author_count_tags holds all tags in a single partition
+  static final int TAGS_BUCKET = 0;
+
+  private static final Comparator<AuthorPostCount> RANKING =
+          Comparator.comparingLong(AuthorPostCount::getPosts).reversed().thenComparing(AuthorPostCount::getAuthor);
+
+  private AuthorCounts() {
+  }
+
+  static CompletionStage<AuthorPostCount> count(CassandraSession db, ReadTables.Generation tables, String author) {
+    return db.selectAll("SELECT posts FROM " + tables.table("author_post_counts") + " WHERE author = ?", author)
+            .thenApply(rows -> new AuthorPostCount(author, rows.stream().mapToLong(row -> row.getLong("posts")).sum()));
+  }
+
+  static CompletionStage<List<AuthorPostCount>> top(CassandraSession db, ReadTables.Generation tables, Integer k, int maxK) {
+    if (k == null || k <= 0 || k > maxK) {
+      throw new BadRequest("k must be between 1 and " + maxK);
+    }
+    return db.selectAll("SELECT tag FROM " + tables.table("author_count_tags") + " WHERE bucket = ?", TAGS_BUCKET)
+            .thenCompose(rows -> top(db, tables, k, rows.stream().map(row -> row.getString("tag")).collect(Collectors.toList()),
+                    k, new HashMap<>()));
+  }
+
+  /**
+   * Reads the first {@code limit} authors of every ranking, doubling the limit until the top k
+   * are known.
+   */
+  private static CompletionStage<List<AuthorPostCount>> top(CassandraSession db, ReadTables.Generation tables, int k,
+                                                            List<String> tags, int limit, Map<String, Long> counts) {
+    List<CompletableFuture<List<AuthorPostCount>>> rankings = new ArrayList<>();
+    for (String tag : tags) {
+      rankings.add(db.selectAll("SELECT posts, author FROM " + tables.table("author_rank_by_tag") + " WHERE tag = ? LIMIT ?",
+              tag, limit)
+              .thenApply(rows -> rows.stream()
+                      .map(row -> new AuthorPostCount(row.getString("author"), row.getLong("posts")))
+                      .collect(Collectors.toList()))
+              .toCompletableFuture());
+    }
+
+    return CompletableFuture.allOf(rankings.toArray(new CompletableFuture[0])).thenCompose(ignored -> {
+      List<List<AuthorPostCount>> read = rankings.stream().map(CompletableFuture::join).collect(Collectors.toList());
+      return counts(db, tables, unseen(read, counts)).thenCompose(seen -> {
+        counts.putAll(seen);
+        Optional<List<AuthorPostCount>> top = topIfKnown(k, limit, read, counts);
+        return top.isPresent()
+                ? CompletableFuture.completedFuture(top.get())
+                : top(db, tables, k, tags, limit * 2, counts);
+      });
+    });
+  }
+
+  /**
+   * Authors of the rankings whose full count is not known yet.
+   */
+  static List<String> unseen(List<List<AuthorPostCount>> rankings, Map<String, Long> counts) {
+    Set<String> unseen = new LinkedHashSet<>();
+    for (List<AuthorPostCount> ranking : rankings) {
+      for (AuthorPostCount count : ranking) {
+        if (!counts.containsKey(count.getAuthor())) {
+          unseen.add(count.getAuthor());
+        }
+      }
+    }
+    return new ArrayList<>(unseen);
+  }
+
+  /**
+   * The top k of the full counts, if the first {@code limit} authors read from every ranking
+   * prove it: either every ranking was read to its end, or the k-th count is at least the sum of
+   * the last counts read from the rankings that go on, which no author missing from all of them
+   * can beat. The rankings only hold positive counts and the negative rows of an author only
+   * lower its full count, so the bound holds across a resize as well. Authors without a positive
+   * count are left out.
+   */
+  static Optional<List<AuthorPostCount>> topIfKnown(int k, int limit, List<List<AuthorPostCount>> rankings,
+                                                    Map<String, Long> counts) {
+    // highest count an author missing from all rankings read so far can have
+    long threshold = 0;
+    boolean exhausted = true;
+    for (List<AuthorPostCount> ranking : rankings) {
+      if (ranking.size() == limit) {
+        threshold += ranking.get(ranking.size() - 1).getPosts();
+        exhausted = false;
+      }
+    }
+    List<AuthorPostCount> ranked = counts.entrySet().stream()
+            .filter(count -> count.getValue() > 0)
+            .map(count -> new AuthorPostCount(count.getKey(), count.getValue()))
+            .sorted(RANKING)
+            .limit(k)
+            .collect(Collectors.toList());
+    if (exhausted || (ranked.size() == k && ranked.get(k - 1).getPosts() >= threshold)) {
+      return Optional.of(ranked);
+    }
+    return Optional.empty();
+  }
+
+  private static CompletionStage<Map<String, Long>> counts(CassandraSession db, ReadTables.Generation tables,
+                                                          List<String> authors) {
+    if (authors.isEmpty()) {
+      return CompletableFuture.completedFuture(new HashMap<>());
+    }
+    return db.selectAll("SELECT author, posts FROM " + tables.table("author_post_counts") + " WHERE author IN ?", authors)
+            .thenApply(rows -> {
+              Map<String, Long> counts = new HashMap<>();
+              for (Row row : rows) {
+                counts.merge(row.getString("author"), row.getLong("posts"), Long::sum);
+              }
+              return counts;
+            });
+  }
+}
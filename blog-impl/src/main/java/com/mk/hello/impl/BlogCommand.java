@@ -41,7 +41,7 @@ public interface BlogCommand extends Jsonable {
   @JsonDeserialize
   @Value
   @AllArgsConstructor(onConstructor = @__(@JsonCreator))
-  final class AddPost implements BlogCommand, CompressedJsonable, PersistentEntity.ReplyType<String> {
+  final class AddPost implements BlogCommand, CompressedJsonable, PersistentEntity.ReplyType<Written> {
     @NonNull
     PostContent content;
   }
@@ -53,9 +53,30 @@ public interface BlogCommand extends Jsonable {
   @JsonDeserialize
   @Value
   @AllArgsConstructor(onConstructor = @__(@JsonCreator))
-  final class UpdatePost implements BlogCommand, CompressedJsonable, PersistentEntity.ReplyType<Done> {
+  final class UpdatePost implements BlogCommand, CompressedJsonable, PersistentEntity.ReplyType<Written> {
     @NonNull
     UpdateContent content;
+    /**
+     * Key supplied by the client, an update with a recently seen key is not applied again.
+     */
+    @NonNull
+    Optional<String> idempotencyKey;
+  }
+
+  /**
+   * Reply to {@link AddPost} and {@link UpdatePost}.
+   */
+  @Immutable
+  @JsonDeserialize
+  @Value
+  @AllArgsConstructor(onConstructor = @__(@JsonCreator))
+  final class Written implements Jsonable {
+    @NonNull
+    String id;
+    /**
+     * Whether an event was persisted, a retried or unchanged write persists none.
+     */
+    boolean persisted;
   }
 
   /**
@@ -6,6 +6,7 @@ import java.util.Optional;
 import java.time.Instant;
 
 import akka.Done;
+import org.pcollections.TreePVector;
 import com.mk.hello.api.PostContent;
 
 /**
@@ -16,6 +17,12 @@ import com.mk.hello.api.PostContent;
 @SuppressWarnings("unchecked")
 public class BlogEntity extends PersistentEntity<BlogCommand, BlogEvent, BlogState> {
 
+  /**
+   * Every that many updates of a post persist its full content, so that consumers of the event
+   * stream never depend on a long chain of edits.
+   */
+  static final int CHECKPOINT_INTERVAL = 10;
+
   @Override
   public Behavior initialBehavior(final Optional<BlogState> snapshotState) {
     final BehaviorBuilder b = newBehaviorBuilder(snapshotState.orElse(BlogState.EMPTY));
@@ -32,34 +39,68 @@ public class BlogEntity extends PersistentEntity<BlogCommand, BlogEvent, BlogSta
   }
 
   private void addBehaviorForAddPost(final BehaviorBuilder b) {
-    b.setCommandHandler(BlogCommand.AddPost.class,
-            (cmd, ctx) -> ctx.thenPersist(
-                    new BlogEvent.PostAdded(entityId(), Instant.now(), cmd.getContent()),
-                    evt -> ctx.reply(entityId())
-            )
-    );
-    b.setEventHandler(BlogEvent.PostAdded.class, evt -> new BlogState(Optional.of(evt.getContent()), Optional.of(evt.getTimestamp())));
+    b.setCommandHandler(BlogCommand.AddPost.class, (cmd, ctx) -> {
+      if (state().getContent().isPresent() || state().isDeleted()) {
+        // a retried addPost, its idempotency key maps to this entity id
+        ctx.reply(new BlogCommand.Written(entityId(), false));
+        return ctx.done();
+      }
+      return ctx.thenPersist(
+              new BlogEvent.PostAdded(entityId(), Instant.now(), cmd.getContent()),
+              evt -> ctx.reply(new BlogCommand.Written(entityId(), true))
+      );
+    });
+    b.setEventHandler(BlogEvent.PostAdded.class, evt -> new BlogState(Optional.of(evt.getContent()), Optional.of(evt.getTimestamp()), 0, TreePVector.empty(), false));
   }
 
   private void addBehaviorForUpdatePost(final BehaviorBuilder b) {
-    b.setCommandHandler(BlogCommand.UpdatePost.class,
-            (cmd, ctx) -> ctx.thenPersist(
-                    new BlogEvent.PostUpdated(state().getTimestamp().get(), new PostContent(
-                            cmd.getContent().getTitle(), cmd.getContent().getBody(), state().getContent().map(c->c.getAuthor()).orElseThrow(RuntimeException::new))),
-                    evt -> ctx.reply(Done.getInstance())
-            )
-    );
-    b.setEventHandler(BlogEvent.PostUpdated.class, evt -> new BlogState(Optional.of(evt.getContent()), Optional.of(evt.getTimestamp())));
+    b.setCommandHandler(BlogCommand.UpdatePost.class, (cmd, ctx) -> {
+      PostContent current = state().getContent().orElseThrow(RuntimeException::new);
+      boolean unchanged = current.getTitle().equals(cmd.getContent().getTitle())
+              && current.getBody().equals(cmd.getContent().getBody());
+      boolean retried = cmd.getIdempotencyKey().map(state().getIdempotencyKeys()::contains).orElse(false);
+      if (unchanged || retried) {
+        ctx.reply(new BlogCommand.Written(entityId(), false));
+        return ctx.done();
+      }
+      return ctx.thenPersist(
+              updateEvent(cmd, current),
+              evt -> ctx.reply(new BlogCommand.Written(entityId(), true))
+      );
+    });
+    b.setEventHandler(BlogEvent.PostUpdated.class, evt -> new BlogState(Optional.of(evt.getContent()), Optional.of(evt.getTimestamp()), 0,
+            state().rememberKey(evt.getIdempotencyKey()), false));
+    b.setEventHandler(BlogEvent.PostEdited.class, evt -> new BlogState(
+            Optional.of(evt.applyTo(state().getContent().get())), Optional.of(evt.getTimestamp()), state().getEdits() + 1,
+            state().rememberKey(evt.getIdempotencyKey()), false));
+  }
+
+  /**
+   * Persists the change only, unless a full checkpoint is due or the patch is not much smaller
+   * than the post anyway.
+   */
+  private BlogEvent updateEvent(BlogCommand.UpdatePost cmd, PostContent current) {
+    PostContent updated = new PostContent(cmd.getContent().getTitle(), cmd.getContent().getBody(), current.getAuthor());
+    BodyPatch patch = BodyPatch.between(current.getBody(), updated.getBody());
+
+    if (state().getEdits() + 1 >= CHECKPOINT_INTERVAL || patch.getReplacement().length() * 2 > updated.getBody().length()) {
+      return new BlogEvent.PostUpdated(entityId(), state().getTimestamp().get(), updated, cmd.getIdempotencyKey());
+    }
+    return new BlogEvent.PostEdited(entityId(), current.getAuthor(), state().getTimestamp().get(),
+            updated.getTitle().equals(current.getTitle()) ? Optional.empty() : Optional.of(updated.getTitle()),
+            patch.getReplacement().isEmpty() && patch.getPrefixLength() + patch.getSuffixLength() == current.getBody().length()
+                    ? Optional.empty() : Optional.of(patch),
+            cmd.getIdempotencyKey());
   }
 
   private void addBehaviorForDeletePost(final BehaviorBuilder b) {
     b.setCommandHandler(BlogCommand.DeletePost.class,
             (cmd, ctx) -> ctx.thenPersist(
-                    new BlogEvent.PostDeleted(state().getContent().map(c->c.getAuthor()).orElseThrow(RuntimeException::new), state().getTimestamp().get()),
+                    new BlogEvent.PostDeleted(entityId(), state().getContent().map(c->c.getAuthor()).orElseThrow(RuntimeException::new), state().getTimestamp().get()),
                     evt -> ctx.reply(Done.getInstance())
             )
     );
-    // reset the snapshot state to empty
-    b.setEventHandler(BlogEvent.PostDeleted.class, evt -> BlogState.EMPTY);
+    // reset the snapshot state, keeping a tombstone so that a retried add does not add the post again
+    b.setEventHandler(BlogEvent.PostDeleted.class, evt -> BlogState.DELETED);
   }
 }
\ No newline at end of file
@@ -11,6 +11,8 @@ import com.lightbend.lagom.serialization.CompressedJsonable;
 import com.lightbend.lagom.serialization.Jsonable;
 import com.mk.hello.api.PostContent;
 
+import java.util.Optional;
+
 import javax.annotation.concurrent.Immutable;
 
 import lombok.AllArgsConstructor;
@@ -31,6 +33,11 @@ public interface BlogEvent extends Jsonable, AggregateEvent<BlogEvent> {
     return BlogEventTag.TAG;
   }
 
+  /**
+   * Id of the post, null for the events persisted before it was recorded.
+   */
+  String getId();
+
   @Immutable
   @JsonDeserialize
   @Value
@@ -49,10 +56,56 @@ public interface BlogEvent extends Jsonable, AggregateEvent<BlogEvent> {
   @Value
   @AllArgsConstructor(onConstructor = @__(@JsonCreator))
   final class PostUpdated implements BlogEvent, CompressedJsonable {
+    /**
+     * Id of the updated post, null for events persisted before it was recorded.
+     */
+    String id;
     @NonNull
     Instant timestamp;
     @NonNull
     PostContent content;
+    /**
+     * Idempotency key of the update, empty if none was given.
+     */
+    Optional<String> idempotencyKey;
+  }
+
+  /**
+   * Change of a post holding only what changed, persisted by {@link BlogEntity} between full
+   * {@link PostUpdated} checkpoints.
+   */
+  @Immutable
+  @JsonDeserialize
+  @Value
+  @AllArgsConstructor(onConstructor = @__(@JsonCreator))
+  final class PostEdited implements BlogEvent, Jsonable {
+    @NonNull
+    String id;
+    @NonNull
+    String author;
+    @NonNull
+    Instant timestamp;
+    /**
+     * New title, empty if unchanged.
+     */
+    @NonNull
+    Optional<String> title;
+    /**
+     * Patch of the body, empty if unchanged.
+     */
+    @NonNull
+    Optional<BodyPatch> body;
+    /**
+     * Idempotency key of the update, empty if none was given.
+     */
+    Optional<String> idempotencyKey;
+
+    public PostContent applyTo(PostContent content) {
+      return new PostContent(
+              title.orElse(content.getTitle()),
+              body.map(patch -> patch.applyTo(content.getBody())).orElse(content.getBody()),
+              content.getAuthor());
+    }
   }
 
   @Immutable
@@ -60,6 +113,10 @@ public interface BlogEvent extends Jsonable, AggregateEvent<BlogEvent> {
   @Value
   @AllArgsConstructor(onConstructor = @__(@JsonCreator))
   final class PostDeleted implements BlogEvent, CompressedJsonable {
+    /**
+     * Id of the deleted post, null for events persisted before it was recorded.
+     */
+    String id;
     @NonNull
     String author;
     @NonNull
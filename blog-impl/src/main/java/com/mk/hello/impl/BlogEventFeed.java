@@ -0,0 +1,203 @@
+package com.mk.hello.impl;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import akka.pattern.PatternsCS;
+import akka.persistence.cassandra.query.javadsl.CassandraReadJournal;
+import akka.persistence.query.PersistenceQuery;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.BroadcastHub;
+import akka.stream.javadsl.RestartSource;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.datastax.driver.core.utils.UUIDs;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.PersistentEntityRegistry;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.spi.persistence.OffsetStore;
+import com.mk.tags.OffsetAdapter;
+import com.mk.tags.ResizableTag;
+import com.typesafe.config.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import scala.compat.java8.FutureConverters;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Tails the events of all {@link BlogEventTag} shards once per node, starting at the time the
+ * node started, and fans them out through a BroadcastHub. Every consumer of live events on the
+ * node attaches to this feed instead of querying the journal on its own, so the load on
+ * Cassandra does not grow with the number of consumers.
+ * <p>
+ * The hub is as fast as its slowest consumer, consumers that may fall behind (like websocket
+ * clients) have to attach through {@link #subscribe()}.
+ */
+@Singleton
+public class BlogEventFeed {
+
+  private static final int HUB_BUFFER_SIZE = 256;
+  private static final FiniteDuration HANDOVER_POLL_INTERVAL = FiniteDuration.create(1, TimeUnit.SECONDS);
+
+  private final Source<BlogEvent, NotUsed> events;
+  private final int subscriberBuffer;
+  private final OverflowStrategy overflowStrategy;
+  private final OffsetStore offsetStore;
+  private final CassandraReadJournal journal;
+  private final ActorSystem system;
+  private final Materializer materializer;
+
+  @Inject
+  public BlogEventFeed(PersistentEntityRegistry registry, OffsetStore offsetStore,
+                       ActorSystem system, Config config, Materializer materializer) {
+    this.subscriberBuffer = config.getInt("blog.live-posts.subscriber-buffer");
+    this.overflowStrategy = overflowStrategy(config.getString("blog.live-posts.overflow-strategy"));
+    this.offsetStore = offsetStore;
+    this.journal = PersistenceQuery.get(system)
+            .getReadJournalFor(CassandraReadJournal.class, CassandraReadJournal.Identifier());
+    this.system = system;
+    this.materializer = materializer;
+    Offset now = Offset.timeBasedUUID(UUIDs.timeBased());
+    Map<String, Offset> offsets = new ConcurrentHashMap<>();
+
+    this.events = Source.from(BlogEventTag.TAGS.allTags())
+            .flatMapMerge(BlogEventTag.TAGS.allTags().size(), tag ->
+                    RestartSource.withBackoff(
+                            FiniteDuration.create(1, TimeUnit.SECONDS),
+                            FiniteDuration.create(30, TimeUnit.SECONDS),
+                            0.2,
+                            // resume where the failed stream left off
+                            () -> registry.eventStream(tag, offsets.getOrDefault(tag.tag(), now))
+                                    .filter(eventAndOffset -> BlogEventTag.TAGS.accepts(tag, eventAndOffset.second()))
+                                    .map(eventAndOffset -> {
+                                      offsets.put(tag.tag(), eventAndOffset.second());
+                                      return eventAndOffset.first();
+                                    })))
+            .runWith(BroadcastHub.of(BlogEvent.class, HUB_BUFFER_SIZE), materializer);
+
+    // without any consumer the hub would backpressure the journal query and hand out stale
+    // events to the first consumer that attaches
+    events.runWith(Sink.ignore(), materializer);
+  }
+
+  /**
+   * Events persisted from now on, across all shards.
+   */
+  public Source<BlogEvent, NotUsed> events() {
+    return events;
+  }
+
+  /**
+   * Events persisted from now on, through a buffer of blog.live-posts.subscriber-buffer events
+   * that applies blog.live-posts.overflow-strategy when the subscriber falls behind. For
+   * subscribers like websocket clients, which must not hold back the hub for everybody else.
+   */
+  public Source<BlogEvent, NotUsed> subscribe() {
+    return events.buffer(subscriberBuffer, overflowStrategy);
+  }
+
+  public int subscriberBuffer() {
+    return subscriberBuffer;
+  }
+
+  /**
+   * The offsets of every shard the given read-side processor has stored, i.e. up to where its
+   * tables have the events.
+   */
+  public CompletionStage<Map<String, Offset>> processedOffsets(String offsetId) {
+    Map<String, Offset> offsets = new ConcurrentHashMap<>();
+    List<CompletableFuture<?>> tags = new ArrayList<>();
+    for (AggregateEventTag<BlogEvent> tag : BlogEventTag.TAGS.allTags()) {
+      tags.add(FutureConverters.toJava(offsetStore.prepare(offsetId, tag.tag()))
+              .thenAccept(dao -> offsets.put(tag.tag(), OffsetAdapter.toLagom(dao.loadedOffset())))
+              .toCompletableFuture());
+    }
+    return CompletableFuture.allOf(tags.toArray(new CompletableFuture[0]))
+            .thenApply(ignored -> offsets);
+  }
+
+  /**
+   * Events of all shards persisted after the given offsets, up to now. This queries the journal
+   * for every caller, it is meant to cover the events a read-side processor has not projected yet.
+   */
+  public Source<BlogEvent, NotUsed> eventsAfter(Map<String, Offset> offsets) {
+    return Source.from(BlogEventTag.TAGS.allTags())
+            .flatMapConcat(tag -> journal.currentEventsByTag(tag.tag(), OffsetAdapter.toAkka(offsets.getOrDefault(tag.tag(), Offset.NONE)))
+                    .filter(envelope -> BlogEventTag.TAGS.accepts(tag, OffsetAdapter.toLagom(envelope.offset())))
+                    .map(envelope -> (BlogEvent) envelope.event()));
+  }
+
+  /**
+   * Events of the tag after the given offset, up to now, with their offsets. Like
+   * {@link #eventsAfter}, this queries the journal for every caller.
+   */
+  public Source<Pair<BlogEvent, Offset>, NotUsed> currentEvents(AggregateEventTag<BlogEvent> tag, Offset after) {
+    return journal.currentEventsByTag(tag.tag(), OffsetAdapter.toAkka(BlogEventTag.TAGS.startOf(tag, after)))
+            .map(envelope -> Pair.create((BlogEvent) envelope.event(), OffsetAdapter.toLagom(envelope.offset())))
+            // the query may start with the event at the offset itself
+            .filter(eventAndOffset -> !eventAndOffset.second().equals(after)
+                    && BlogEventTag.TAGS.accepts(tag, eventAndOffset.second()));
+  }
+
+  /**
+   * The offset of the first event of the tag after the given offset, if any.
+   */
+  public CompletionStage<Optional<Offset>> firstAfter(AggregateEventTag<BlogEvent> tag, Offset after) {
+    return journal.currentEventsByTag(tag.tag(), OffsetAdapter.toAkka(after))
+            .map(envelope -> OffsetAdapter.toLagom(envelope.offset()))
+            // the query may start with the event at the offset itself
+            .filter(offset -> !offset.equals(after) && BlogEventTag.TAGS.accepts(tag, offset))
+            .runWith(Sink.headOption(), materializer);
+  }
+
+  /**
+   * The barrier keeping the events of an entity in order across a resize of the shards for the
+   * given read-side processor: it is reached once the offsets the processor stored for the tags
+   * are followed by no event they are to take. Checked every {@link #HANDOVER_POLL_INTERVAL}.
+   */
+  public ResizableTag.Barrier<BlogEvent> handoverBarrier(String offsetId) {
+    return tags -> processedOffsets(offsetId).thenCompose(offsets -> {
+      List<CompletableFuture<Optional<Offset>>> pending = new ArrayList<>();
+      for (AggregateEventTag<BlogEvent> tag : tags) {
+        pending.add(firstAfter(tag, offsets.getOrDefault(tag.tag(), Offset.NONE)).toCompletableFuture());
+      }
+      return CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).thenCompose(ignored -> {
+        if (pending.stream().noneMatch(first -> first.join().isPresent())) {
+          return CompletableFuture.completedFuture(Done.getInstance());
+        }
+        return PatternsCS.after(HANDOVER_POLL_INTERVAL, system.scheduler(), system.dispatcher(),
+                () -> handoverBarrier(offsetId).reached(tags));
+      });
+    });
+  }
+
+  private static OverflowStrategy overflowStrategy(String name) {
+    switch (name) {
+      case "drop-head":
+        return OverflowStrategy.dropHead();
+      case "drop-tail":
+        return OverflowStrategy.dropTail();
+      case "drop-new":
+        return OverflowStrategy.dropNew();
+      case "drop-buffer":
+        return OverflowStrategy.dropBuffer();
+      case "fail":
+        return OverflowStrategy.fail();
+      default:
+        throw new IllegalArgumentException("Unknown overflow strategy: " + name);
+    }
+  }
+}
@@ -1,15 +1,24 @@
 package com.mk.hello.impl;
 
 import com.lightbend.lagom.javadsl.persistence.AggregateEventShards;
-import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.mk.tags.ResizableTag;
+import com.typesafe.config.ConfigFactory;
 
 public class BlogEventTag {
 
+    /**
+     * Shards of the blog events, see blog.event-tag. The events are tagged when they are
+     * persisted, before any injected configuration is available, hence the static load.
+     */
+    static final ResizableTag<BlogEvent> TAGS =
+            ResizableTag.fromConfig(BlogEvent.class, ConfigFactory.load().getConfig("blog.event-tag"));
+
     /**
      * Tags are used for getting and publishing streams of events. Each event
      * will have this tag, and in this case, we are partitioning the tags into
-     * 4 shards, which means we can have 4 concurrent processors/publishers of
-     * events.
+     * blog.event-tag.shards shards, which means we can have that many concurrent
+     * processors/publishers of events. Consumers subscribe to {@link ResizableTag#allTags()}
+     * of {@link #TAGS}, which includes the shards of the earlier counts.
      */
-    public static final AggregateEventShards<BlogEvent> TAG = AggregateEventTag.sharded(BlogEvent.class, 4);
+    public static final AggregateEventShards<BlogEvent> TAG = TAGS.current();
 }
@@ -0,0 +1,161 @@
+package com.mk.hello.impl;
+
+import akka.stream.Materializer;
+import com.mk.hello.api.PostCacheStats;
+import com.mk.hello.api.PostContent;
+import com.typesafe.config.Config;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Bounded node local cache of blog posts by id, so that reading a post does not need to ask
+ * the {@link BlogEntity}. Entries are evicted least recently used first once the approximate
+ * size of the cached posts exceeds blog.post-cache.max-weight.
+ * <p>
+ * The cache is fed and invalidated from the {@link BlogEventFeed} of the node.
+ * Changes made through other nodes become visible once that stream delivers them, which is
+ * bounded by the eventual consistency delay of the Cassandra query journal.
+ */
+@Singleton
+public class BlogPostCache {
+
+  private final boolean enabled;
+  private final long maxWeight;
+
+  // access ordered, iteration starts at the least recently used entry
+  private final LinkedHashMap<String, PostContent> entries = new LinkedHashMap<>(64, 0.75f, true);
+  private long weight;
+  // the ids being read from the entity after a miss. A post read from the entity is only cached
+  // if no event for it arrived while it was being read, an event bumps the generation of its id.
+  private final HashMap<String, Reads> reads = new HashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  @Inject
+  public BlogPostCache(Config config, BlogEventFeed feed, Materializer materializer) {
+    this.enabled = config.getBoolean("blog.post-cache.enabled");
+    this.maxWeight = config.getBytes("blog.post-cache.max-weight");
+
+    if (enabled) {
+      feed.events().runForeach(this::apply, materializer);
+    }
+  }
+
+  private void apply(BlogEvent event) {
+    if (event instanceof BlogEvent.PostAdded) {
+      BlogEvent.PostAdded added = (BlogEvent.PostAdded) event;
+      update(added.getId(), added.getContent());
+    } else if (event instanceof BlogEvent.PostUpdated) {
+      BlogEvent.PostUpdated updated = (BlogEvent.PostUpdated) event;
+      if (updated.getId() != null) {
+        update(updated.getId(), updated.getContent());
+      }
+    } else if (event instanceof BlogEvent.PostEdited) {
+      // the patch only applies to the version right before it, which the cached entry may not be
+      invalidate(((BlogEvent.PostEdited) event).getId());
+    } else if (event instanceof BlogEvent.PostDeleted) {
+      BlogEvent.PostDeleted deleted = (BlogEvent.PostDeleted) event;
+      if (deleted.getId() != null) {
+        invalidate(deleted.getId());
+      }
+    }
+  }
+
+  public Optional<PostContent> get(String id) {
+    PostContent content;
+    synchronized (this) {
+      content = entries.get(id);
+    }
+    if (content == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return Optional.ofNullable(content);
+  }
+
+  /**
+   * Starts a read of the post after a miss and returns the current generation of its id. It must
+   * be passed to {@link #putIfUnchanged} once the read completes, whether it succeeded or not.
+   */
+  public synchronized long generation(String id) {
+    Reads pending = reads.computeIfAbsent(id, key -> new Reads());
+    pending.readers++;
+    return pending.generation;
+  }
+
+  /**
+   * Caches a post read from the entity, unless an event for it arrived since the read started.
+   */
+  public synchronized void putIfUnchanged(String id, Optional<PostContent> content, long readGeneration) {
+    Reads pending = reads.get(id);
+    if (enabled && content.isPresent() && pending.generation == readGeneration) {
+      store(id, content.get());
+    }
+    if (--pending.readers == 0) {
+      reads.remove(id);
+    }
+  }
+
+  public synchronized void invalidate(String id) {
+    changed(id);
+    PostContent removed = entries.remove(id);
+    if (removed != null) {
+      weight -= weigh(removed);
+    }
+  }
+
+  private synchronized void update(String id, PostContent content) {
+    changed(id);
+    store(id, content);
+  }
+
+  private void changed(String id) {
+    Reads pending = reads.get(id);
+    if (pending != null) {
+      pending.generation++;
+    }
+  }
+
+  private void store(String id, PostContent content) {
+    PostContent previous = entries.put(id, content);
+    if (previous != null) {
+      weight -= weigh(previous);
+    }
+    weight += weigh(content);
+
+    Iterator<PostContent> lru = entries.values().iterator();
+    while (weight > maxWeight && lru.hasNext()) {
+      weight -= weigh(lru.next());
+      lru.remove();
+      evictions.increment();
+    }
+  }
+
+  /**
+   * Approximate size in bytes of a cached post.
+   */
+  private static long weigh(PostContent content) {
+    return 64L + 2L * (content.getTitle().length() + content.getBody().length() + content.getAuthor().length());
+  }
+
+  private static final class Reads {
+    private int readers;
+    private long generation;
+  }
+
+  public PostCacheStats stats() {
+    synchronized (this) {
+      return new PostCacheStats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), weight, maxWeight);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package com.mk.hello.impl;
+
+import com.mk.tags.PreviousShardTagger;
+import com.mk.tags.ResizableTag;
+
+import java.util.Optional;
+
+/**
+ * Adds the previous shard tag to the blog events persisted during a resize of
+ * {@link BlogEventTag}. Events without a post id keep their current tag only, they are only found
+ * in journals written before the id was recorded.
+ */
+public class BlogPreviousShardTagger extends PreviousShardTagger<BlogEvent> {
+
+  public BlogPreviousShardTagger() {
+    super(BlogEvent.class);
+  }
+
+  @Override
+  protected ResizableTag<BlogEvent> tags() {
+    return BlogEventTag.TAGS;
+  }
+
+  @Override
+  protected Optional<String> entityId(BlogEvent event) {
+    return Optional.ofNullable(event.getId());
+  }
+}
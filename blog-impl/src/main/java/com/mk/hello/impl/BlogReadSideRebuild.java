@@ -0,0 +1,488 @@
+package com.mk.hello.impl;
+
+import akka.Done;
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.cluster.singleton.ClusterSingletonManager;
+import akka.cluster.singleton.ClusterSingletonManagerSettings;
+import akka.cluster.singleton.ClusterSingletonProxy;
+import akka.cluster.singleton.ClusterSingletonProxySettings;
+import akka.pattern.PatternsCS;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.Timeout;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.lightbend.lagom.javadsl.api.transport.BadRequest;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.lightbend.lagom.serialization.Jsonable;
+import com.lightbend.lagom.spi.persistence.OffsetStore;
+import com.mk.hello.api.RebuildStatus;
+import com.mk.tags.OffsetAdapter;
+import com.typesafe.config.Config;
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+import scala.compat.java8.FutureConverters;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Rebuilds the blog read side from the journal.
+ * <p>
+ * The projections the queries read (post summaries, timeline, search and author counts) are
+ * replayed into the next generation of their tables (see {@link ReadTables}), while the queries
+ * and the processors go on with the current one. Every event is written in one batch with its
+ * offset in read_side_replay_offsets, so an interrupted replay goes on where it stopped. A second
+ * pass takes the events persisted during the first one. Then every processor is paused (see
+ * {@link ReadSidePauses}) for a last pass, its offsets are moved to those of the replay and its
+ * projection is switched to the new generation. The earlier generations are left for an operator
+ * to drop.
+ * <p>
+ * The rebuild runs in a cluster singleton and its state is kept in read_side_rebuild, so every
+ * node reports it and a rebuild interrupted by the loss of its node resumes on the next one.
+ */
+@Singleton
+public class BlogReadSideRebuild {
+
+  private static final String STATE_KEY = "blog";
+  private static final Timeout ASK_TIMEOUT = Timeout.apply(10, TimeUnit.SECONDS);
+
+  private static final List<String> RUNNING = Arrays.asList("replaying", "catching-up", "switching");
+
+  private final CassandraSession session;
+  private final ReadTables tables;
+  private final ReadSidePauses pauses;
+  private final BlogEventFeed feed;
+  private final OffsetStore offsetStore;
+  private final List<Projection> projections;
+  private final ActorSystem system;
+  private final Materializer materializer;
+  private final int parallelism;
+  private final FiniteDuration pauseDelay;
+  private final ActorRef singleton;
+
+  // Will complete when read_side_rebuild has been successfully created
+  private volatile CompletableFuture<Done> table;
+  // Will complete when read_side_replay_offsets has been successfully created
+  private volatile CompletableFuture<Done> offsetsTable;
+
+  @Inject
+  public BlogReadSideRebuild(CassandraSession session, ReadTables tables, ReadSidePauses pauses,
+                             BlogEventFeed feed, OffsetStore offsetStore,
+                             PostSummaryEventProcessor summaries, PostTimelineEventProcessor timeline,
+                             PostSearchEventProcessor search, AuthorCountEventProcessor authorCounts,
+                             ActorSystem system, Materializer materializer, Config config) {
+    this.session = session;
+    this.tables = tables;
+    this.pauses = pauses;
+    this.feed = feed;
+    this.offsetStore = offsetStore;
+    this.projections = Arrays.asList(summaries, timeline, search, authorCounts);
+    this.system = system;
+    this.materializer = materializer;
+    this.parallelism = config.getInt("blog.rebuild.parallelism");
+    // the processors notice a pause and the queries a switch within the refresh, with a margin
+    // for the processors to finish their in-flight writes
+    long refresh = config.getDuration("blog.rebuild.pointer-refresh", TimeUnit.MILLISECONDS);
+    this.pauseDelay = FiniteDuration.create(refresh * 2, TimeUnit.MILLISECONDS);
+
+    system.actorOf(ClusterSingletonManager.props(
+            Props.create(Rebuilder.class, () -> new Rebuilder(this)),
+            PoisonPill.getInstance(),
+            ClusterSingletonManagerSettings.create(system)), "blog-rebuild");
+    this.singleton = system.actorOf(ClusterSingletonProxy.props(
+            "/user/blog-rebuild", ClusterSingletonProxySettings.create(system)), "blog-rebuild-proxy");
+  }
+
+  /**
+   * Starts a rebuild in the background, unless one is already running in the cluster.
+   */
+  public CompletionStage<RebuildStatus> start() {
+    return PatternsCS.ask(singleton, Start.INSTANCE, ASK_TIMEOUT).thenCompose(reply -> {
+      if (reply instanceof Rejected) {
+        throw new BadRequest(((Rejected) reply).getReason());
+      } else if (reply instanceof Failed) {
+        throw new IllegalStateException("The rebuild could not be started: " + ((Failed) reply).getReason());
+      }
+      return status();
+    });
+  }
+
+  public CompletionStage<RebuildStatus> status() {
+    return load().thenApply(run -> run.map(Run::status).orElseGet(() -> new Run("idle", 0, 0).status()));
+  }
+
+  private CompletionStage<Optional<Run>> load() {
+    return table()
+            .thenCompose(done -> session.selectOne("SELECT * FROM read_side_rebuild WHERE name = ?", STATE_KEY))
+            .thenApply(row -> row.map(Run::new));
+  }
+
+  /**
+   * The generation after the latest one of any projection.
+   */
+  private CompletionStage<Integer> nextGeneration() {
+    List<CompletableFuture<ReadTables.Generation>> current = new ArrayList<>();
+    for (Projection projection : projections) {
+      current.add(tables.load(projection.offsetId()).toCompletableFuture());
+    }
+    return CompletableFuture.allOf(current.toArray(new CompletableFuture[0]))
+            .thenApply(ignored -> current.stream().mapToInt(generation -> generation.join().number).max().orElse(0) + 1);
+  }
+
+  /**
+   * Runs the rebuild on from the phase it is in.
+   */
+  private CompletionStage<Done> run(Run run) {
+    ReadTables.Generation generation = new ReadTables.Generation(run.generation);
+    CompletionStage<Done> replayed = !run.phase.equals("replaying")
+            ? CompletableFuture.completedFuture(Done.getInstance())
+            : forEachProjection(projection -> projection.createTables(generation)
+                    .thenCompose(created -> replay(projection, generation)))
+                    .thenCompose(done -> run.enter("catching-up"));
+    // the first pass may take long, the second one takes the events persisted meanwhile, so the
+    // processors are only paused for the events persisted during the second one
+    CompletionStage<Done> caughtUp = replayed.thenCompose(done -> !run.phase.equals("catching-up")
+            ? CompletableFuture.completedFuture(Done.getInstance())
+            : forEachProjection(projection -> replay(projection, generation))
+                    .thenCompose(replayedAgain -> run.enter("switching")));
+    return caughtUp.thenCompose(done -> forEachProjection(projection -> switchTo(projection, generation)));
+  }
+
+  /**
+   * Replays the events after the offsets stored for the generation into its tables. The events
+   * of a shard count are all older than those of the next count, so the counts are replayed one
+   * after the other, the tags of a count blog.rebuild.parallelism at a time.
+   */
+  private CompletionStage<Done> replay(Projection projection, ReadTables.Generation generation) {
+    String replayId = replayId(projection, generation);
+    return replayOffsets(replayId).thenCompose(offsets -> {
+      CompletionStage<Done> replayed = CompletableFuture.completedFuture(Done.getInstance());
+      for (PSequence<AggregateEventTag<BlogEvent>> count : BlogEventTag.TAGS.tagsByCount()) {
+        replayed = replayed.thenCompose(done -> Source.from(count)
+                .mapAsyncUnordered(parallelism, tag -> replay(projection, generation, replayId, tag,
+                        offsets.getOrDefault(tag.tag(), Offset.NONE)))
+                .runWith(Sink.ignore(), materializer));
+      }
+      return replayed;
+    });
+  }
+
+  private CompletionStage<Done> replay(Projection projection, ReadTables.Generation generation, String replayId,
+                                       AggregateEventTag<BlogEvent> tag, Offset after) {
+    return projection.writer(generation, tag).thenCompose(writer -> feed.currentEvents(tag, after)
+            .mapAsync(1, eventAndOffset -> writer.statements(eventAndOffset.first(), eventAndOffset.second())
+                    .thenCompose(statements -> write(statements, replayId, tag, eventAndOffset.second())))
+            .runWith(Sink.ignore(), materializer));
+  }
+
+  /**
+   * Writes the statements of an event in one batch with its offset, like a processor does, so a
+   * resumed replay handles every event exactly once.
+   */
+  private CompletionStage<Done> write(List<BoundStatement> statements, String replayId,
+                                      AggregateEventTag<BlogEvent> tag, Offset offset) {
+    BatchStatement batch = new BatchStatement();
+    batch.addAll(statements);
+    batch.add(new SimpleStatement(
+            "INSERT INTO read_side_replay_offsets (offset_id, tag, time_uuid_offset) VALUES (?, ?, ?)",
+            replayId, tag.tag(), uuidOf(offset)));
+    return session.executeWriteBatch(batch);
+  }
+
+  /**
+   * Pauses the processor of the projection, replays the events it has handled since the last
+   * pass, moves its offsets to those of the replay and switches the projection to the generation.
+   * A projection switched before the rebuild was interrupted only has its processor resumed.
+   */
+  private CompletionStage<Done> switchTo(Projection projection, ReadTables.Generation generation) {
+    String offsetId = projection.offsetId();
+    return tables.load(offsetId).thenCompose(current -> current.number == generation.number
+            ? pauses.resume(offsetId)
+            : whilePaused(offsetId, () -> replay(projection, generation)
+                    .thenCompose(done -> handOver(projection, generation))
+                    .thenCompose(done -> tables.switchTo(offsetId, generation))
+                    // a query on a node still reading the previous generation would not see
+                    // what the resumed processor writes
+                    .thenCompose(done -> after(pauseDelay))));
+  }
+
+  /**
+   * Runs the action once the handlers of the processor have stopped, and resumes the processor
+   * afterwards, also if the action failed.
+   */
+  private CompletionStage<Done> whilePaused(String offsetId, Supplier<CompletionStage<Done>> action) {
+    return pauses.pause(offsetId)
+            .thenCompose(paused -> after(pauseDelay))
+            .thenCompose(stopped -> action.get())
+            .handle((done, failure) -> pauses.resume(offsetId).thenApply(resumed -> {
+              if (failure != null) {
+                throw new CompletionException(failure);
+              }
+              return resumed;
+            }))
+            .thenCompose(resumed -> resumed);
+  }
+
+  /**
+   * Stores the offsets the replay got to as those of the processor, for every tag.
+   */
+  private CompletionStage<Done> handOver(Projection projection, ReadTables.Generation generation) {
+    return replayOffsets(replayId(projection, generation)).thenCompose(offsets -> {
+      List<CompletableFuture<?>> saved = new ArrayList<>();
+      for (AggregateEventTag<BlogEvent> tag : BlogEventTag.TAGS.allTags()) {
+        Offset offset = offsets.getOrDefault(tag.tag(), Offset.NONE);
+        saved.add(FutureConverters.toJava(offsetStore.prepare(projection.offsetId(), tag.tag()))
+                .thenCompose(dao -> FutureConverters.toJava(dao.saveOffset(OffsetAdapter.toAkka(offset))))
+                .toCompletableFuture());
+      }
+      return CompletableFuture.allOf(saved.toArray(new CompletableFuture[0]))
+              .thenApply(ignored -> Done.getInstance());
+    });
+  }
+
+  private CompletionStage<Map<String, Offset>> replayOffsets(String replayId) {
+    return offsetsTable()
+            .thenCompose(done -> session.selectAll(
+                    "SELECT tag, time_uuid_offset FROM read_side_replay_offsets WHERE offset_id = ?", replayId))
+            .thenApply(rows -> {
+              Map<String, Offset> offsets = new HashMap<>();
+              for (Row row : rows) {
+                offsets.put(row.getString("tag"), Offset.timeBasedUUID(row.getUUID("time_uuid_offset")));
+              }
+              return offsets;
+            });
+  }
+
+  private static String replayId(Projection projection, ReadTables.Generation generation) {
+    return projection.offsetId() + "_g" + generation.number;
+  }
+
+  private static UUID uuidOf(Offset offset) {
+    if (offset instanceof Offset.TimeBasedUUID) {
+      return ((Offset.TimeBasedUUID) offset).value();
+    }
+    throw new IllegalArgumentException("Only time based offsets can be replayed, not " + offset);
+  }
+
+  private CompletionStage<Done> forEachProjection(Function<Projection, CompletionStage<Done>> action) {
+    List<CompletableFuture<Done>> actions = new ArrayList<>();
+    for (Projection projection : projections) {
+      actions.add(action.apply(projection).toCompletableFuture());
+    }
+    return CompletableFuture.allOf(actions.toArray(new CompletableFuture[0]))
+            .thenApply(ignored -> Done.getInstance());
+  }
+
+  private CompletionStage<Done> after(FiniteDuration delay) {
+    return PatternsCS.after(delay, system.scheduler(), system.dispatcher(),
+            () -> CompletableFuture.completedFuture(Done.getInstance()));
+  }
+
+  private synchronized CompletionStage<Done> table() {
+    if (table == null || table.isCompletedExceptionally()) {
+      table = session.executeCreateTable(
+              "CREATE TABLE IF NOT EXISTS read_side_rebuild ("
+                      + "name text, phase text, generation int, started_at bigint, finished_at bigint, error text, "
+                      + "PRIMARY KEY (name))")
+              .toCompletableFuture();
+    }
+    return table;
+  }
+
+  private synchronized CompletionStage<Done> offsetsTable() {
+    if (offsetsTable == null || offsetsTable.isCompletedExceptionally()) {
+      offsetsTable = session.executeCreateTable(
+              "CREATE TABLE IF NOT EXISTS read_side_replay_offsets ("
+                      + "offset_id text, tag text, time_uuid_offset timeuuid, "
+                      + "PRIMARY KEY (offset_id, tag))")
+              .toCompletableFuture();
+    }
+    return offsetsTable;
+  }
+
+  /**
+   * State of a rebuild, saved to read_side_rebuild on every change.
+   */
+  private final class Run {
+    volatile String phase;
+    final int generation;
+    final long startedAt;
+    volatile long finishedAt;
+    volatile Optional<String> error = Optional.empty();
+
+    Run(String phase, int generation, long startedAt) {
+      this.phase = phase;
+      this.generation = generation;
+      this.startedAt = startedAt;
+    }
+
+    Run(Row row) {
+      this.phase = row.getString("phase");
+      this.generation = row.getInt("generation");
+      this.startedAt = row.getLong("started_at");
+      this.finishedAt = row.getLong("finished_at");
+      this.error = Optional.ofNullable(row.getString("error"));
+    }
+
+    boolean isRunning() {
+      return RUNNING.contains(phase);
+    }
+
+    CompletionStage<Done> enter(String phase) {
+      this.phase = phase;
+      return save();
+    }
+
+    CompletionStage<Done> finish(Throwable failure) {
+      finishedAt = System.currentTimeMillis();
+      if (failure != null) {
+        phase = "failed";
+        error = Optional.of(String.valueOf(failure.getMessage()));
+      } else {
+        phase = "done";
+      }
+      return save();
+    }
+
+    CompletionStage<Done> save() {
+      return table().thenCompose(done -> session.executeWrite(
+              "INSERT INTO read_side_rebuild (name, phase, generation, started_at, finished_at, error) VALUES (?, ?, ?, ?, ?, ?)",
+              STATE_KEY, phase, generation, startedAt, finishedAt, error.orElse(null)));
+    }
+
+    RebuildStatus status() {
+      long elapsed = startedAt == 0 ? 0 : (finishedAt == 0 ? System.currentTimeMillis() : finishedAt) - startedAt;
+      PSequence<String> offsetIds = TreePVector.from(projections.stream()
+              .map(Projection::offsetId)
+              .collect(Collectors.toList()));
+      return new RebuildStatus(phase, generation, elapsed, offsetIds, error);
+    }
+  }
+
+  /**
+   * Asks the singleton to start a rebuild, which replies {@link Started} once the rebuild is
+   * saved, {@link Rejected} or {@link Failed}. The singleton may run on another node, so its
+   * protocol is Jsonable.
+   */
+  enum Start implements Jsonable {
+    INSTANCE
+  }
+
+  enum Started implements Jsonable {
+    INSTANCE
+  }
+
+  @Immutable
+  @JsonDeserialize
+  @Value
+  @AllArgsConstructor(onConstructor = @__(@JsonCreator))
+  static final class Rejected implements Jsonable {
+    @NonNull
+    String reason;
+  }
+
+  @Immutable
+  @JsonDeserialize
+  @Value
+  @AllArgsConstructor(onConstructor = @__(@JsonCreator))
+  static final class Failed implements Jsonable {
+    @NonNull
+    String reason;
+  }
+
+  private static final class Finished {
+    static final Finished INSTANCE = new Finished();
+  }
+
+  /**
+   * The cluster singleton running the rebuilds, one at a time. It resumes a rebuild its
+   * predecessor left running.
+   */
+  static final class Rebuilder extends AbstractActor {
+    private final BlogReadSideRebuild rebuild;
+    private boolean running;
+
+    Rebuilder(BlogReadSideRebuild rebuild) {
+      this.rebuild = rebuild;
+    }
+
+    @Override
+    public void preStart() {
+      running = true;
+      ActorRef self = getSelf();
+      rebuild.load().whenComplete((run, failure) -> {
+        if (run != null && run.isPresent() && run.get().isRunning()) {
+          execute(run.get(), self);
+        } else {
+          self.tell(Finished.INSTANCE, ActorRef.noSender());
+        }
+      });
+    }
+
+    @Override
+    public Receive createReceive() {
+      return receiveBuilder()
+          .match(Start.class, start -> {
+            if (running) {
+              getSender().tell(new Rejected("A rebuild is already running"), getSelf());
+              return;
+            }
+            running = true;
+            ActorRef self = getSelf();
+            CompletionStage<Object> started = rebuild.nextGeneration().thenCompose(generation -> {
+              Run run = rebuild.new Run("replaying", generation, System.currentTimeMillis());
+              return run.save().<Object>thenApply(done -> {
+                execute(run, self);
+                return Started.INSTANCE;
+              });
+            });
+            PatternsCS.pipe(started.exceptionally(failure -> {
+              self.tell(Finished.INSTANCE, ActorRef.noSender());
+              return new Failed(String.valueOf(failure.getMessage()));
+            }), getContext().dispatcher()).to(getSender());
+          })
+          .match(Finished.class, finished -> running = false)
+          .build();
+    }
+
+    private void execute(Run run, ActorRef self) {
+      rebuild.run(run)
+          .handle((done, failure) -> run.finish(failure))
+          .thenCompose(saved -> saved)
+          .whenComplete((done, failure) -> self.tell(Finished.INSTANCE, ActorRef.noSender()));
+    }
+  }
+}
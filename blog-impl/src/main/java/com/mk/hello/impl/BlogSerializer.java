@@ -0,0 +1,306 @@
+package com.mk.hello.impl;
+
+import akka.serialization.SerializerWithStringManifest;
+import com.mk.hello.api.PostContent;
+import com.mk.hello.api.UpdateContent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+
+/**
+ * Compact binary serializer for the blog events, commands and state, used for the journal,
+ * the snapshot store and cluster sharding messages instead of Jackson JSON.
+ * <p>
+ * The schema of every type is written and read field by field below. Each message starts
+ * with the version of the schema it was written with, so a schema can evolve by bumping
+ * its version and keeping a reader for the older ones. Messages above 32KiB are compressed,
+ * like {@link com.lightbend.lagom.serialization.CompressedJsonable}.
+ * <p>
+ * Journal entries written as JSON keep their serializer id and are still read by the Lagom
+ * JSON serializer, so both formats can coexist while the journal migrates.
+ */
+public class BlogSerializer extends SerializerWithStringManifest {
+
+  private static final int COMPRESSION_THRESHOLD = 32 * 1024;
+  private static final byte PLAIN = 0;
+  private static final byte GZIP = 1;
+
+  static final String POST_ADDED = "PostAdded";
+  static final String POST_UPDATED = "PostUpdated";
+  static final String POST_EDITED = "PostEdited";
+  static final String POST_DELETED = "PostDeleted";
+  static final String GET_POST = "GetPost";
+  static final String ADD_POST = "AddPost";
+  static final String UPDATE_POST = "UpdatePost";
+  static final String DELETE_POST = "DeletePost";
+  static final String WRITTEN = "Written";
+  static final String BLOG_STATE = "BlogState";
+
+  @Override
+  public int identifier() {
+    return 1000101;
+  }
+
+  @Override
+  public String manifest(Object o) {
+    if (o instanceof BlogEvent.PostAdded) {
+      return POST_ADDED;
+    } else if (o instanceof BlogEvent.PostUpdated) {
+      return POST_UPDATED;
+    } else if (o instanceof BlogEvent.PostEdited) {
+      return POST_EDITED;
+    } else if (o instanceof BlogEvent.PostDeleted) {
+      return POST_DELETED;
+    } else if (o instanceof BlogCommand.GetPost) {
+      return GET_POST;
+    } else if (o instanceof BlogCommand.AddPost) {
+      return ADD_POST;
+    } else if (o instanceof BlogCommand.UpdatePost) {
+      return UPDATE_POST;
+    } else if (o instanceof BlogCommand.DeletePost) {
+      return DELETE_POST;
+    } else if (o instanceof BlogCommand.Written) {
+      return WRITTEN;
+    } else if (o instanceof BlogState) {
+      return BLOG_STATE;
+    }
+    throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+  }
+
+  @Override
+  public byte[] toBinary(Object o) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      write(o, out);
+      out.flush();
+      return frame(bytes.toByteArray());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+    try (DataInputStream in = new DataInputStream(unframe(bytes))) {
+      return read(manifest, in.readUnsignedByte(), in);
+    } catch (NotSerializableException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Current schema version of every manifest.
+   */
+  private static int version(String manifest) {
+    switch (manifest) {
+      case BLOG_STATE:
+        return 4; // 2: edits, 3: idempotency keys, 4: deleted
+      case POST_UPDATED:
+      case POST_EDITED:
+      case UPDATE_POST:
+        return 2; // 2: idempotency key
+      default:
+        return 1;
+    }
+  }
+
+  private void write(Object o, DataOutputStream out) throws IOException {
+    out.writeByte(version(manifest(o)));
+
+    if (o instanceof BlogEvent.PostAdded) {
+      BlogEvent.PostAdded added = (BlogEvent.PostAdded) o;
+      writeString(out, added.getId());
+      writeInstant(out, added.getTimestamp());
+      writeContent(out, added.getContent());
+    } else if (o instanceof BlogEvent.PostUpdated) {
+      BlogEvent.PostUpdated updated = (BlogEvent.PostUpdated) o;
+      writeString(out, updated.getId());
+      writeInstant(out, updated.getTimestamp());
+      writeContent(out, updated.getContent());
+      writeOptionalString(out, updated.getIdempotencyKey());
+    } else if (o instanceof BlogEvent.PostEdited) {
+      BlogEvent.PostEdited edited = (BlogEvent.PostEdited) o;
+      writeString(out, edited.getId());
+      writeString(out, edited.getAuthor());
+      writeInstant(out, edited.getTimestamp());
+      writeOptionalString(out, edited.getTitle());
+      out.writeBoolean(edited.getBody().isPresent());
+      if (edited.getBody().isPresent()) {
+        BodyPatch patch = edited.getBody().get();
+        out.writeInt(patch.getPrefixLength());
+        out.writeInt(patch.getSuffixLength());
+        writeString(out, patch.getReplacement());
+      }
+      writeOptionalString(out, edited.getIdempotencyKey());
+    } else if (o instanceof BlogEvent.PostDeleted) {
+      BlogEvent.PostDeleted deleted = (BlogEvent.PostDeleted) o;
+      writeString(out, deleted.getId());
+      writeString(out, deleted.getAuthor());
+      writeInstant(out, deleted.getTimestamp());
+    } else if (o instanceof BlogCommand.AddPost) {
+      writeContent(out, ((BlogCommand.AddPost) o).getContent());
+    } else if (o instanceof BlogCommand.UpdatePost) {
+      UpdateContent content = ((BlogCommand.UpdatePost) o).getContent();
+      writeString(out, content.getTitle());
+      writeString(out, content.getBody());
+      writeOptionalString(out, ((BlogCommand.UpdatePost) o).getIdempotencyKey());
+    } else if (o instanceof BlogCommand.Written) {
+      BlogCommand.Written written = (BlogCommand.Written) o;
+      writeString(out, written.getId());
+      out.writeBoolean(written.isPersisted());
+    } else if (o instanceof BlogState) {
+      BlogState state = (BlogState) o;
+      out.writeBoolean(state.getContent().isPresent());
+      if (state.getContent().isPresent()) {
+        writeContent(out, state.getContent().get());
+      }
+      out.writeBoolean(state.getTimestamp().isPresent());
+      if (state.getTimestamp().isPresent()) {
+        writeInstant(out, state.getTimestamp().get());
+      }
+      out.writeInt(state.getEdits());
+      out.writeInt(state.getIdempotencyKeys().size());
+      for (String key : state.getIdempotencyKeys()) {
+        writeString(out, key);
+      }
+      out.writeBoolean(state.isDeleted());
+    } else if (!(o instanceof BlogCommand.GetPost || o instanceof BlogCommand.DeletePost)) {
+      throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+    }
+  }
+
+  private Object read(String manifest, int version, DataInputStream in) throws IOException {
+    if (version < 1 || version > version(manifest)) {
+      throw new NotSerializableException("Unknown version " + version + " of " + manifest);
+    }
+
+    switch (manifest) {
+      case POST_ADDED:
+        return new BlogEvent.PostAdded(readString(in), readInstant(in), readContent(in));
+      case POST_UPDATED:
+        return new BlogEvent.PostUpdated(readString(in), readInstant(in), readContent(in),
+                version >= 2 ? readOptionalString(in) : Optional.empty());
+      case POST_EDITED:
+        return new BlogEvent.PostEdited(readString(in), readString(in), readInstant(in),
+                readOptionalString(in),
+                in.readBoolean() ? Optional.of(new BodyPatch(in.readInt(), in.readInt(), readString(in))) : Optional.empty(),
+                version >= 2 ? readOptionalString(in) : Optional.empty());
+      case POST_DELETED:
+        return new BlogEvent.PostDeleted(readString(in), readString(in), readInstant(in));
+      case GET_POST:
+        return BlogCommand.GetPost.INSTANCE;
+      case ADD_POST:
+        return new BlogCommand.AddPost(readContent(in));
+      case UPDATE_POST:
+        return new BlogCommand.UpdatePost(new UpdateContent(readString(in), readString(in)),
+                version >= 2 ? readOptionalString(in) : Optional.empty());
+      case DELETE_POST:
+        return BlogCommand.DeletePost.INSTANCE;
+      case WRITTEN:
+        return new BlogCommand.Written(readString(in), in.readBoolean());
+      case BLOG_STATE:
+        Optional<PostContent> content = in.readBoolean() ? Optional.of(readContent(in)) : Optional.empty();
+        Optional<Instant> timestamp = in.readBoolean() ? Optional.of(readInstant(in)) : Optional.empty();
+        int edits = version >= 2 ? in.readInt() : 0;
+        PSequence<String> keys = TreePVector.empty();
+        if (version >= 3) {
+          for (int i = in.readInt(); i > 0; i--) {
+            keys = keys.plus(readString(in));
+          }
+        }
+        boolean deleted = version >= 4 && in.readBoolean();
+        return new BlogState(content, timestamp, edits, keys, deleted);
+      default:
+        throw new NotSerializableException("Unknown manifest " + manifest);
+    }
+  }
+
+  private static byte[] frame(byte[] payload) throws IOException {
+    ByteArrayOutputStream framed = new ByteArrayOutputStream(payload.length + 1);
+    if (payload.length > COMPRESSION_THRESHOLD) {
+      framed.write(GZIP);
+      try (GZIPOutputStream gzip = new GZIPOutputStream(framed)) {
+        gzip.write(payload);
+      }
+    } else {
+      framed.write(PLAIN);
+      framed.write(payload);
+    }
+    return framed.toByteArray();
+  }
+
+  private static InputStream unframe(byte[] bytes) throws IOException {
+    InputStream payload = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+    return bytes[0] == GZIP ? new GZIPInputStream(payload) : payload;
+  }
+
+  private static void writeContent(DataOutputStream out, PostContent content) throws IOException {
+    writeString(out, content.getTitle());
+    writeString(out, content.getBody());
+    writeString(out, content.getAuthor());
+  }
+
+  private static PostContent readContent(DataInputStream in) throws IOException {
+    return new PostContent(readString(in), readString(in), readString(in));
+  }
+
+  /**
+   * Length prefixed UTF-8, writeUTF is limited to 64KiB. A length of -1 stands for null.
+   */
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(utf8.length);
+      out.write(utf8);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] utf8 = new byte[length];
+    in.readFully(utf8);
+    return new String(utf8, StandardCharsets.UTF_8);
+  }
+
+  private static void writeOptionalString(DataOutputStream out, Optional<String> value) throws IOException {
+    out.writeBoolean(value.isPresent());
+    if (value.isPresent()) {
+      writeString(out, value.get());
+    }
+  }
+
+  private static Optional<String> readOptionalString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? Optional.of(readString(in)) : Optional.empty();
+  }
+
+  private static void writeInstant(DataOutputStream out, Instant instant) throws IOException {
+    out.writeLong(instant.getEpochSecond());
+    out.writeInt(instant.getNano());
+  }
+
+  private static Instant readInstant(DataInputStream in) throws IOException {
+    return Instant.ofEpochSecond(in.readLong(), in.readInt());
+  }
+}
@@ -1,28 +1,52 @@
 package com.mk.hello.impl;
 
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
 
 import com.lightbend.lagom.javadsl.api.ServiceCall;
+import com.lightbend.lagom.javadsl.api.deser.ExceptionMessage;
+import com.lightbend.lagom.javadsl.api.transport.BadRequest;
+import com.lightbend.lagom.javadsl.api.transport.RequestHeader;
+import com.lightbend.lagom.javadsl.api.transport.ResponseHeader;
+import com.lightbend.lagom.javadsl.api.transport.TransportErrorCode;
+import com.lightbend.lagom.javadsl.api.transport.TransportException;
+import com.lightbend.lagom.javadsl.server.HeaderServiceCall;
 import com.lightbend.lagom.javadsl.persistence.PersistentEntityRegistry;
 import com.lightbend.lagom.javadsl.persistence.ReadSide;
+import com.mk.hello.api.AuthorPostCount;
 import com.mk.hello.api.BlogService;
+import com.mk.hello.api.PostCacheStats;
 import com.mk.hello.api.PostContent;
+import com.mk.hello.api.PostLookup;
 import com.mk.hello.api.UpdateContent;
 import com.mk.hello.api.PostSummary;
+import com.mk.hello.api.PostSummaryPage;
+import com.mk.hello.api.ProjectionStats;
+import com.mk.hello.api.RebuildStatus;
 import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
 import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.typesafe.config.Config;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 
 import akka.Done;
 import akka.NotUsed;
+import akka.japi.Pair;
+import akka.japi.function.Function;
 import com.mk.hello.api.UpdateContent;
 import org.pcollections.PSequence;
 import org.pcollections.TreePVector;
@@ -35,81 +59,272 @@ import org.pcollections.TreePVector;
  */
 public class BlogServiceImpl implements BlogService {
 
+  private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+  private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+  private static final String CONSISTENCY_TOKEN_HEADER = "X-Consistency-Token";
+
   private final PersistentEntityRegistry registry;
   private final CassandraSession db;
+  private final BlogPostCache cache;
+  private final IdempotencyKeys idempotencyKeys;
+  private final BlogEventFeed feed;
+  private final BlogReadSideRebuild rebuild;
+  private final ProjectionProgress progress;
+  private final ProjectionMetrics metrics;
+  private final ProjectionReadiness readiness;
+  private final ReadTables readTables;
+  private final int liveSnapshotSize;
+  private final int ingestParallelism;
+  private final int multiGetMaxIds;
+  private final int multiGetParallelism;
+  private final int searchMaxPageSize;
+  private final int searchMaxQueryTerms;
+  private final int searchMaxPostingsPerTerm;
+  private final int topAuthorsMaxK;
+  private final boolean legacyPostContent;
+  private final Materializer materializer;
 
   @Inject
   public BlogServiceImpl(final PersistentEntityRegistry registry, ReadSide readSide,
-                         CassandraSession db) {
+                         CassandraSession db, BlogPostCache cache, IdempotencyKeys idempotencyKeys, BlogEventFeed feed,
+                         BlogReadSideRebuild rebuild, ProjectionProgress progress, ProjectionMetrics metrics,
+                         ProjectionReadiness readiness, ReadTables readTables, Config config, Materializer materializer) {
     this.registry = registry;
     this.db = db;
+    this.cache = cache;
+    this.idempotencyKeys = idempotencyKeys;
+    this.feed = feed;
+    this.rebuild = rebuild;
+    this.progress = progress;
+    this.metrics = metrics;
+    this.readiness = readiness;
+    this.readTables = readTables;
+    this.liveSnapshotSize = config.getInt("blog.live-posts.snapshot-size");
+    this.ingestParallelism = config.getInt("blog.ingest.parallelism");
+    this.multiGetMaxIds = config.getInt("blog.multi-get.max-ids");
+    this.multiGetParallelism = config.getInt("blog.multi-get.parallelism");
+    this.searchMaxPageSize = config.getInt("blog.search.max-page-size");
+    this.searchMaxQueryTerms = config.getInt("blog.search.max-query-terms");
+    this.searchMaxPostingsPerTerm = config.getInt("blog.search.max-postings-per-term");
+    this.topAuthorsMaxK = config.getInt("blog.author-counts.max-top");
+    this.materializer = materializer;
 
     registry.register(BlogEntity.class);
-    readSide.register(BlogEventProcessor.class);
+    readSide.register(PostSummaryEventProcessor.class);
+    readSide.register(PostTimelineEventProcessor.class);
+    readSide.register(PostSearchEventProcessor.class);
+    readSide.register(AuthorCountEventProcessor.class);
+    this.legacyPostContent = config.getBoolean("blog.read-side.legacy-postcontent.enabled");
+    if (legacyPostContent) {
+      readSide.register(LegacyPostContentEventProcessor.class);
+    }
   }
 
   @Override
   public ServiceCall<NotUsed, Optional<PostContent>> getPost(final String id) {
-    return request -> registry.refFor(BlogEntity.class, id)
-            .ask(BlogCommand.GetPost.INSTANCE);
+    return request -> readPost(id);
+  }
+
+  @Override
+  public ServiceCall<PSequence<String>, PSequence<PostLookup>> getPosts() {
+    return ids -> {
+      if (ids.size() > multiGetMaxIds) {
+        throw new BadRequest("At most " + multiGetMaxIds + " ids can be looked up at once");
+      }
+      return Source.from(ids)
+              .mapAsync(multiGetParallelism, id -> readPost(id).thenApply(content -> new PostLookup(id, content)))
+              .runWith(Sink.seq(), materializer)
+              .thenApply(TreePVector::from);
+    };
+  }
+
+  /**
+   * Reads a post from the cache, or from its entity on a miss.
+   */
+  private CompletionStage<Optional<PostContent>> readPost(String id) {
+    Optional<PostContent> cached = cache.get(id);
+    if (cached.isPresent()) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    long generation = cache.generation(id);
+    return registry.refFor(BlogEntity.class, id)
+            .ask(BlogCommand.GetPost.INSTANCE)
+            .whenComplete((content, error) ->
+                    cache.putIfUnchanged(id, content == null ? Optional.empty() : content, generation));
   }
 
   @Override
   public ServiceCall<PostContent, String> addPost() {
-    return content -> registry.refFor(BlogEntity.class, UUID.randomUUID().toString())
-            .ask(new BlogCommand.AddPost(content));
+    return HeaderServiceCall.of((requestHeader, content) -> {
+      long startedAt = System.currentTimeMillis();
+      return addPost(content, idempotencyKey(requestHeader))
+              .thenApply(written -> Pair.create(consistencyToken(written, startedAt), written.getId()));
+    });
+  }
+
+  @Override
+  public ServiceCall<Source<PostContent, NotUsed>, Source<String, NotUsed>> addPosts() {
+    return HeaderServiceCall.of((requestHeader, contents) -> {
+      Optional<String> key = idempotencyKey(requestHeader);
+      // mapAsync keeps the order of the ids and backpressures while the asks are pending
+      Source<String, NotUsed> ids = contents.zipWithIndex()
+              .mapAsync(ingestParallelism, contentAndIndex ->
+                      addPost(contentAndIndex.first(), key.map(k -> k + "/" + contentAndIndex.second()))
+                              .thenApply(BlogCommand.Written::getId));
+      return CompletableFuture.completedFuture(Pair.create(ResponseHeader.OK, ids));
+    });
   }
 
   @Override
   public ServiceCall<UpdateContent, Done> updatePost(final String id) {
-    return content -> registry.refFor(BlogEntity.class, id)
-            .ask(new BlogCommand.UpdatePost(content));
+    return HeaderServiceCall.of((requestHeader, content) -> {
+      long startedAt = System.currentTimeMillis();
+      return registry.refFor(BlogEntity.class, id)
+              .ask(new BlogCommand.UpdatePost(content, idempotencyKey(requestHeader)))
+              .thenApply(written -> {
+                // other nodes are invalidated through the event stream
+                cache.invalidate(id);
+                return Pair.create(consistencyToken(written, startedAt), Done.getInstance());
+              });
+    });
+  }
+
+  /**
+   * Adds the post, or returns the id of the post an earlier attempt with the same idempotency key
+   * added. A keyed post gets the id its author claimed the key for, see {@link IdempotencyKeys},
+   * and its entity replies without persisting if the post was added or deleted already.
+   */
+  private CompletionStage<BlogCommand.Written> addPost(PostContent content, Optional<String> key) {
+    CompletionStage<String> id = key.isPresent()
+            ? idempotencyKeys.postId(content.getAuthor(), key.get())
+            : CompletableFuture.completedFuture(UUID.randomUUID().toString());
+    return id.thenCompose(postId -> registry.refFor(BlogEntity.class, postId).ask(new BlogCommand.AddPost(content)));
+  }
+
+  private static Optional<String> idempotencyKey(RequestHeader requestHeader) {
+    Optional<String> key = requestHeader.getHeader(IDEMPOTENCY_KEY_HEADER);
+    if (key.isPresent() && (key.get().isEmpty() || key.get().length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+      throw new BadRequest(IDEMPOTENCY_KEY_HEADER + " must be 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+    }
+    return key;
+  }
+
+  /**
+   * Response header carrying the token a query can wait on to see the write, see
+   * {@link ProjectionProgress}.
+   */
+  private static ResponseHeader consistencyToken(String id, long startedAt) {
+    return ResponseHeader.OK.withHeader(CONSISTENCY_TOKEN_HEADER, ProjectionProgress.token(id, startedAt));
+  }
+
+  /**
+   * Response header of an add or update, without a token if it persisted no event: no projection
+   * would ever process an event of the post after startedAt, so a query would wait on the token
+   * until blog.consistency.wait-timeout. The token of the write a retry repeats came with the
+   * response to that write.
+   */
+  private static ResponseHeader consistencyToken(BlogCommand.Written written, long startedAt) {
+    return written.isPersisted() ? consistencyToken(written.getId(), startedAt) : ResponseHeader.OK;
+  }
+
+  /**
+   * Runs the query once the projection has processed the write of the consistency token of the
+   * request, right away without a token.
+   */
+  private <T> CompletionStage<Pair<ResponseHeader, T>> afterConsistencyToken(RequestHeader requestHeader, String projection,
+                                                                            Supplier<CompletionStage<T>> query) {
+    Optional<String> token = requestHeader.getHeader(CONSISTENCY_TOKEN_HEADER);
+    CompletionStage<T> result = token.isPresent()
+            ? progress.await(projection, token.get()).thenCompose(done -> query.get())
+            : query.get();
+    return result.thenApply(response -> Pair.create(ResponseHeader.OK, response));
+  }
+
+  /**
+   * Runs the query against the current generation of the tables of the projection (see
+   * {@link ReadTables}) once its processor has caught up with the journal, see
+   * {@link ProjectionReadiness}, and the fallback against the table it replaces until then. The
+   * fallback does not wait on consistency tokens, the old processor is not tracked.
+   */
+  private <T> CompletionStage<Pair<ResponseHeader, T>> fromProjection(RequestHeader requestHeader, String projection,
+                                                                     String offsetId,
+                                                                     java.util.function.Function<ReadTables.Generation, CompletionStage<T>> query,
+                                                                     Supplier<CompletionStage<T>> fallback) {
+    return readiness.hasCaughtUp(offsetId).thenCompose(caughtUp -> caughtUp
+            ? afterConsistencyToken(requestHeader, projection, () -> readTables.current(offsetId).thenCompose(query))
+            : fallback.get().thenApply(response -> Pair.create(ResponseHeader.OK, response)));
+  }
+
+  /**
+   * The fallback reading the legacy postcontent table, if it is kept current.
+   */
+  private <T> Supplier<CompletionStage<T>> legacy(Supplier<CompletionStage<T>> fallback) {
+    return legacyPostContent ? fallback : notReady("post list");
+  }
+
+  /**
+   * A fallback answering 503 Service Unavailable, for projections with nothing to fall back to.
+   */
+  private static <T> Supplier<CompletionStage<T>> notReady(String projection) {
+    return () -> {
+      throw new TransportException(TransportErrorCode.ServiceUnavailable,
+              new ExceptionMessage("NotReady", "The " + projection + " is still being built"));
+    };
   }
 
   @Override
   public ServiceCall<NotUsed, Done> deletePost(final String id) {
-    return request -> registry.refFor(BlogEntity.class, id)
-            .ask(BlogCommand.DeletePost.INSTANCE);
+    return HeaderServiceCall.of((requestHeader, request) -> {
+      long startedAt = System.currentTimeMillis();
+      return registry.refFor(BlogEntity.class, id)
+              .ask(BlogCommand.DeletePost.INSTANCE)
+              .thenApply(done -> {
+                cache.invalidate(id);
+                return Pair.create(consistencyToken(id, startedAt), done);
+              });
+    });
   }
 
   @Override
   public ServiceCall<NotUsed, PSequence<PostSummary>> getAllPosts(Integer pageNo, Integer pageSize) {
-    return req -> {
-      CompletionStage<PSequence<PostSummary>> result = db.selectAll("SELECT * FROM postcontent")
-              .thenApply(rows -> {
-                List<PostSummary> posts = rows.stream()
-                        .skip(pageNo*pageSize)
-                        .limit(pageSize)
-                        .map(this::mapPostSummary).collect(Collectors.toList());
-                return TreePVector.from(posts);
-              });
-      return result;
-    };
+    return HeaderServiceCall.of((requestHeader, req) -> fromProjection(requestHeader, ProjectionProgress.POST_SUMMARY,
+            PostSummaryEventProcessor.OFFSET_ID,
+            tables -> allPosts(tables.table("post_summary_by_month"), pageNo, pageSize),
+            legacy(() -> allPosts(LegacyPostContentEventProcessor.TABLE, pageNo, pageSize))));
+  }
+
+  private CompletionStage<PSequence<PostSummary>> allPosts(String table, Integer pageNo, Integer pageSize) {
+    return db.selectAll("SELECT id, title FROM " + table)
+            .thenApply(rows -> postsPage(rows, pageNo, pageSize));
+  }
+
+  private PSequence<PostSummary> postsPage(List<Row> rows, Integer pageNo, Integer pageSize) {
+    List<PostSummary> posts = rows.stream()
+            .skip(pageNo*pageSize)
+            .limit(pageSize)
+            .map(this::mapPostSummary).collect(Collectors.toList());
+    return TreePVector.from(posts);
   }
 
   @Override
   public ServiceCall<NotUsed, Source<PostSummary, ?>> getLivePosts() {
     return req -> {
 
-      Source<PostSummary, ?> result = db.select("SELECT * FROM postcontent")
-              .map(this::mapPostSummary);
+      Source<PostSummary, ?> result = livePosts(Optional.empty());
       return CompletableFuture.completedFuture(result);
     };
   }
 
   @Override
   public ServiceCall<NotUsed, PSequence<PostSummary>> getPostsByAuthor(final String author, Integer pageNo, Integer pageSize) {
-    return req -> {
-      CompletionStage<PSequence<PostSummary>> result = db.selectAll("SELECT * FROM postcontent where author = ? ORDER BY timestamp DESC", author)
-              .thenApply(rows -> {
-                List<PostSummary> posts = rows.stream()
-                        .skip(pageNo*pageSize)
-                        .limit(pageSize)
-                        .map(this::mapPostSummary).collect(Collectors.toList());
-                return TreePVector.from(posts);
-              });
-      return result;
-    };
+    return HeaderServiceCall.of((requestHeader, req) -> fromProjection(requestHeader, ProjectionProgress.POST_SUMMARY,
+            PostSummaryEventProcessor.OFFSET_ID,
+            // walks the month buckets of the author newest first until the page is full
+            tables -> PostBuckets.newest(db, tables, author, (pageNo + 1) * pageSize)
+                    .thenApply(rows -> postsPage(rows, pageNo, pageSize)),
+            legacy(() -> db.selectAll("SELECT id, title FROM " + LegacyPostContentEventProcessor.TABLE
+                    + " WHERE author = ? ORDER BY timestamp DESC LIMIT ?", author, (pageNo + 1) * pageSize)
+                    .thenApply(rows -> postsPage(rows, pageNo, pageSize)))));
   }
 
   @Override
@@ -117,12 +332,198 @@ public class BlogServiceImpl implements BlogService {
 
     return author -> {
 
-      Source<PostSummary, ?> result = db.select("SELECT * FROM postcontent where author = ? ORDER BY timestamp DESC", author)
-              .map(this::mapPostSummary);
+      Source<PostSummary, ?> result = livePosts(Optional.of(author));
       return CompletableFuture.completedFuture(result);
     };
   }
 
+  /**
+   * Catches up with a bounded snapshot of the read side and then tails the shared event feed
+   * of the node, so the stream never completes on its own. The author variant filters the
+   * same feed instead of starting an upstream per author.
+   * <p>
+   * The offsets of the post_summary projection are read before the snapshot, and the events
+   * after them are replayed from the journal between the snapshot and the tail. Posts persisted
+   * but not projected yet are in neither the snapshot nor the feed (it starts with the node), so
+   * they would be missed otherwise. Until the post_summary projection has caught up, the snapshot
+   * is taken from the legacy postcontent table and its offsets instead, if it is kept current.
+   */
+  private Source<PostSummary, NotUsed> livePosts(Optional<String> author) {
+    Source<PostSummary, NotUsed> catchUp = Source.fromCompletionStage(readiness.hasCaughtUp(PostSummaryEventProcessor.OFFSET_ID))
+            .flatMapConcat(caughtUp -> caughtUp || !legacyPostContent
+                    ? catchUp(PostSummaryEventProcessor.OFFSET_ID, summarySnapshot(author), author)
+                    : catchUp(LegacyPostContentEventProcessor.OFFSET_ID, legacySnapshot(author), author));
+
+    // concat subscribes to the tail right away, its buffer keeps what arrives during the catch up
+    Source<PostSummary, NotUsed> tail = feed.subscribe().via(summaries(author));
+
+    return catchUp.concat(tail).statefulMapConcat(this::withoutRepeats);
+  }
+
+  private Source<PostSummary, NotUsed> catchUp(String offsetId, Source<Row, NotUsed> snapshot, Optional<String> author) {
+    return Source.fromCompletionStage(feed.processedOffsets(offsetId))
+            .flatMapConcat(offsets -> snapshot.map(this::mapPostSummary).concat(feed.eventsAfter(offsets).via(summaries(author))));
+  }
+
+  private Source<Row, NotUsed> summarySnapshot(Optional<String> author) {
+    return Source.fromCompletionStage(readTables.current(PostSummaryEventProcessor.OFFSET_ID))
+            .flatMapConcat(tables -> author
+                    .map(a -> Source.fromCompletionStage(PostBuckets.newest(db, tables, a, liveSnapshotSize)).mapConcat(rows -> rows))
+                    .orElseGet(() -> db.select("SELECT id, title FROM " + tables.table("post_summary_by_month") + " LIMIT ?",
+                            liveSnapshotSize)));
+  }
+
+  private Source<Row, NotUsed> legacySnapshot(Optional<String> author) {
+    return author
+            .map(a -> db.select("SELECT id, title FROM " + LegacyPostContentEventProcessor.TABLE
+                    + " WHERE author = ? ORDER BY timestamp DESC LIMIT ?", a, liveSnapshotSize))
+            .orElseGet(() -> db.select("SELECT id, title FROM " + LegacyPostContentEventProcessor.TABLE + " LIMIT ?", liveSnapshotSize));
+  }
+
+  private Flow<BlogEvent, PostSummary, NotUsed> summaries(Optional<String> author) {
+    return Flow.<BlogEvent>create()
+            .filter(event -> !author.isPresent() || author.get().equals(authorOf(event)))
+            .mapConcat(event -> toPostSummary(event)
+                    .map(Collections::singletonList)
+                    .orElse(Collections.emptyList()));
+  }
+
+  /**
+   * Drops a summary equal to the last one sent for its post. The snapshot, the replayed events
+   * and the buffered tail overlap by at most the snapshot and the buffer, so remembering that
+   * many posts is enough.
+   */
+  private Function<PostSummary, Iterable<PostSummary>> withoutRepeats() {
+    int remembered = liveSnapshotSize + feed.subscriberBuffer();
+    Map<String, PostSummary> sent = new LinkedHashMap<String, PostSummary>(64, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, PostSummary> eldest) {
+        return size() > remembered;
+      }
+    };
+    return summary -> summary.equals(sent.put(summary.getId(), summary))
+            ? Collections.emptyList()
+            : Collections.singletonList(summary);
+  }
+
+  private static String authorOf(BlogEvent event) {
+    if (event instanceof BlogEvent.PostAdded) {
+      return ((BlogEvent.PostAdded) event).getContent().getAuthor();
+    } else if (event instanceof BlogEvent.PostUpdated) {
+      return ((BlogEvent.PostUpdated) event).getContent().getAuthor();
+    } else if (event instanceof BlogEvent.PostEdited) {
+      return ((BlogEvent.PostEdited) event).getAuthor();
+    } else if (event instanceof BlogEvent.PostDeleted) {
+      return ((BlogEvent.PostDeleted) event).getAuthor();
+    }
+    return null;
+  }
+
+  private static Optional<PostSummary> toPostSummary(BlogEvent event) {
+    if (event instanceof BlogEvent.PostAdded) {
+      BlogEvent.PostAdded added = (BlogEvent.PostAdded) event;
+      return Optional.of(new PostSummary(added.getId(), added.getContent().getTitle()));
+    } else if (event instanceof BlogEvent.PostUpdated) {
+      BlogEvent.PostUpdated updated = (BlogEvent.PostUpdated) event;
+      return Optional.ofNullable(updated.getId())
+              .map(id -> new PostSummary(id, updated.getContent().getTitle()));
+    } else if (event instanceof BlogEvent.PostEdited) {
+      // the summary only changes with the title
+      BlogEvent.PostEdited edited = (BlogEvent.PostEdited) event;
+      return edited.getTitle().map(title -> new PostSummary(edited.getId(), title));
+    } else if (event instanceof BlogEvent.PostDeleted) {
+      return Optional.ofNullable(((BlogEvent.PostDeleted) event).getId())
+              .map(id -> new PostSummary(id, "", true));
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public ServiceCall<NotUsed, PostSummaryPage> getAllPostsPage(Integer pageSize, Optional<String> pageToken) {
+    return HeaderServiceCall.of((requestHeader, req) -> fromProjection(requestHeader, ProjectionProgress.POST_SUMMARY,
+            PostSummaryEventProcessor.OFFSET_ID,
+            tables -> CassandraPaging.selectPage(db,
+                    new SimpleStatement("SELECT id, title FROM " + tables.table("post_summary_by_month")), pageSize, pageToken)
+                    .thenApply(this::mapPostSummaryPage),
+            legacy(() -> CassandraPaging.selectPage(db,
+                    new SimpleStatement("SELECT id, title FROM " + LegacyPostContentEventProcessor.TABLE), pageSize, pageToken)
+                    .thenApply(this::mapPostSummaryPage))));
+  }
+
+  @Override
+  public ServiceCall<NotUsed, PostSummaryPage> getPostsByAuthorPage(final String author, Integer pageSize, Optional<String> pageToken) {
+    return HeaderServiceCall.of((requestHeader, req) -> fromProjection(requestHeader, ProjectionProgress.POST_SUMMARY,
+            PostSummaryEventProcessor.OFFSET_ID,
+            tables -> PostBuckets.authorPage(db, tables, author, pageSize, pageToken)
+                    .thenApply(this::mapPostSummaryPage),
+            legacy(() -> CassandraPaging.selectPage(db,
+                    new SimpleStatement("SELECT id, title FROM " + LegacyPostContentEventProcessor.TABLE
+                            + " WHERE author = ? ORDER BY timestamp DESC", author), pageSize, pageToken)
+                    .thenApply(this::mapPostSummaryPage))));
+  }
+
+  @Override
+  public ServiceCall<NotUsed, PostSummaryPage> getRecentPosts(Integer pageSize, Optional<String> pageToken) {
+    // no earlier table orders the posts of all authors by time, so there is nothing to fall back to
+    return HeaderServiceCall.of((requestHeader, req) -> fromProjection(requestHeader, ProjectionProgress.POST_TIMELINE,
+            PostTimelineEventProcessor.OFFSET_ID,
+            tables -> PostBuckets.timelinePage(db, tables, pageSize, pageToken)
+                    .thenApply(this::mapPostSummaryPage),
+            notReady("recent posts timeline")));
+  }
+
+  @Override
+  public ServiceCall<NotUsed, PostSummaryPage> searchPosts(String query, Integer pageSize, Optional<String> pageToken) {
+    return HeaderServiceCall.of((requestHeader, req) -> fromProjection(requestHeader, ProjectionProgress.POST_SEARCH,
+            PostSearchEventProcessor.OFFSET_ID,
+            tables -> PostSearch.search(db, tables, query, pageSize, pageToken,
+                    searchMaxPageSize, searchMaxQueryTerms, searchMaxPostingsPerTerm)
+                    .thenApply(this::mapPostSummaryPage),
+            notReady("search index")));
+  }
+
+  @Override
+  public ServiceCall<NotUsed, AuthorPostCount> countPostsByAuthor(String author) {
+    return HeaderServiceCall.of((requestHeader, req) -> fromProjection(requestHeader, ProjectionProgress.AUTHOR_COUNT,
+            AuthorCountEventProcessor.OFFSET_ID,
+            tables -> AuthorCounts.count(db, tables, author),
+            notReady("author post counts")));
+  }
+
+  @Override
+  public ServiceCall<NotUsed, PSequence<AuthorPostCount>> topAuthors(Integer k) {
+    return HeaderServiceCall.of((requestHeader, req) -> fromProjection(requestHeader, ProjectionProgress.AUTHOR_COUNT,
+            AuthorCountEventProcessor.OFFSET_ID,
+            tables -> AuthorCounts.top(db, tables, k, topAuthorsMaxK).thenApply(TreePVector::from),
+            notReady("author post counts")));
+  }
+
+  @Override
+  public ServiceCall<NotUsed, PostCacheStats> getPostCacheStats() {
+    return req -> CompletableFuture.completedFuture(cache.stats());
+  }
+
+  @Override
+  public ServiceCall<NotUsed, PSequence<ProjectionStats>> getProjectionStats() {
+    return req -> metrics.stats().thenApply(TreePVector::from);
+  }
+
+  @Override
+  public ServiceCall<NotUsed, RebuildStatus> startRebuild() {
+    return req -> rebuild.start();
+  }
+
+  @Override
+  public ServiceCall<NotUsed, RebuildStatus> getRebuildStatus() {
+    return req -> rebuild.status();
+  }
+
+  private PostSummaryPage mapPostSummaryPage(CassandraPaging.Page page) {
+    List<PostSummary> posts = page.getRows().stream()
+            .map(this::mapPostSummary).collect(Collectors.toList());
+    return new PostSummaryPage(TreePVector.from(posts), page.getNextPageToken());
+  }
+
   private PostSummary mapPostSummary(Row row) {
     return new PostSummary(
             row.getString("id"),
@@ -10,6 +10,9 @@ import java.util.Optional;
 
 import javax.annotation.concurrent.Immutable;
 
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+
 import lombok.AllArgsConstructor;
 import lombok.NonNull;
 import lombok.Value;
@@ -29,9 +32,51 @@ public class BlogState implements CompressedJsonable {
   /**
    * Default initial blog post state.
    */
-  public static final BlogState EMPTY = new BlogState(Optional.empty(), Optional.empty());
+  public static final BlogState EMPTY = new BlogState(Optional.empty(), Optional.empty(), 0, TreePVector.empty(), false);
+
+  /**
+   * State of a deleted blog post.
+   */
+  public static final BlogState DELETED = new BlogState(Optional.empty(), Optional.empty(), 0, TreePVector.empty(), true);
+
+  /**
+   * Number of idempotency keys of past updates remembered to deduplicate retries.
+   */
+  static final int MAX_IDEMPOTENCY_KEYS = 32;
 
   Optional<PostContent> content;
 
   Optional<Instant> timestamp;
+
+  /**
+   * Number of {@link BlogEvent.PostEdited} since the last event holding the full content.
+   */
+  int edits;
+
+  /**
+   * Idempotency keys of the most recent updates, oldest first.
+   */
+  PSequence<String> idempotencyKeys;
+
+  /**
+   * Whether the post was deleted. The id of a keyed post is reused by the retries of its addPost,
+   * which must not add it again.
+   */
+  boolean deleted;
+
+  public PSequence<String> getIdempotencyKeys() {
+    // null in JSON snapshots taken before the keys were recorded
+    return idempotencyKeys == null ? TreePVector.empty() : idempotencyKeys;
+  }
+
+  /**
+   * The remembered keys after an update with the given key.
+   */
+  public PSequence<String> rememberKey(Optional<String> key) {
+    if (!key.isPresent()) {
+      return getIdempotencyKeys();
+    }
+    PSequence<String> keys = getIdempotencyKeys().plus(key.get());
+    return keys.size() > MAX_IDEMPOTENCY_KEYS ? keys.minus(0) : keys;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package com.mk.hello.impl;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import javax.annotation.concurrent.Immutable;
+
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Edit of a post body as a single splice: the characters between the unchanged prefix and the
+ * unchanged suffix of the old body are replaced. A typo fix in a large body is a patch of a few
+ * characters.
+ *
+ * @see BlogEvent.PostEdited
+ */
+@Immutable
+@JsonDeserialize
+@Value
+@AllArgsConstructor(onConstructor = @__(@JsonCreator))
+public class BodyPatch {
+
+  int prefixLength;
+
+  int suffixLength;
+
+  @NonNull
+  String replacement;
+
+  /**
+   * Computes the patch turning {@code from} into {@code to}.
+   */
+  public static BodyPatch between(String from, String to) {
+    int max = Math.min(from.length(), to.length());
+
+    int prefix = 0;
+    while (prefix < max && from.charAt(prefix) == to.charAt(prefix)) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < max - prefix
+            && from.charAt(from.length() - 1 - suffix) == to.charAt(to.length() - 1 - suffix)) {
+      suffix++;
+    }
+
+    // never split a surrogate pair, the replacement has to be valid UTF-16 on its own
+    if (prefix > 0 && Character.isHighSurrogate(from.charAt(prefix - 1))) {
+      prefix--;
+    }
+    if (suffix > 0 && Character.isLowSurrogate(from.charAt(from.length() - suffix))) {
+      suffix--;
+    }
+
+    return new BodyPatch(prefix, suffix, to.substring(prefix, to.length() - suffix));
+  }
+
+  public String applyTo(String body) {
+    return body.substring(0, prefixLength) + replacement + body.substring(body.length() - suffixLength);
+  }
+}
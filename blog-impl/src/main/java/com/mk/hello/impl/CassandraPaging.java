@@ -0,0 +1,77 @@
+package com.mk.hello.impl;
+
+import com.datastax.driver.core.PagingState;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.PagingStateException;
+import com.lightbend.lagom.javadsl.api.transport.BadRequest;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import lombok.Value;
+
+/**
+ * Reads a single page of a query. The page size and the driver paging state are pushed down to
+ * Cassandra, so every page costs the same no matter how deep into the result it is.
+ *
+ * Note: CassandraSession.selectAll always drains the whole result set, that is why this goes
+ * through the underlying driver session instead.
+ */
+final class CassandraPaging {
+
+  private CassandraPaging() {
+  }
+
+  @Value
+  static class Page {
+    List<Row> rows;
+    Optional<String> nextPageToken;
+  }
+
+  static CompletionStage<Page> selectPage(CassandraSession db, Statement statement,
+                                          Integer pageSize, Optional<String> pageToken) {
+    if (pageSize == null || pageSize <= 0) {
+      throw new BadRequest("pageSize must be positive");
+    }
+    statement.setFetchSize(pageSize);
+    pageToken.ifPresent(token -> {
+      try {
+        statement.setPagingState(PagingState.fromString(token));
+      } catch (PagingStateException | IllegalArgumentException e) {
+        throw new BadRequest("Invalid pageToken");
+      }
+    });
+
+    return db.underlying()
+            .thenCompose(session -> toCompletionStage(session.executeAsync(statement)))
+            .thenApply(rs -> {
+              // only take what the first fetch returned, iterating further would fetch the next page
+              int available = rs.getAvailableWithoutFetching();
+              List<Row> rows = new ArrayList<>(available);
+              for (int i = 0; i < available; i++) {
+                rows.add(rs.one());
+              }
+              PagingState next = rs.getExecutionInfo().getPagingState();
+              return new Page(rows, Optional.ofNullable(next).map(PagingState::toString));
+            });
+  }
+
+  static CompletionStage<ResultSet> toCompletionStage(ResultSetFuture future) {
+    CompletableFuture<ResultSet> result = new CompletableFuture<>();
+    future.addListener(() -> {
+      try {
+        result.complete(future.getUninterruptibly());
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+      }
+    }, Runnable::run);
+    return result;
+  }
+}
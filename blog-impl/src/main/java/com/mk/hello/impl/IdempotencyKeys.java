@@ -0,0 +1,61 @@
+package com.mk.hello.impl;
+
+import akka.Done;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.typesafe.config.Config;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Maps the Idempotency-Key of an addPost to the id of its post for blog.idempotency.retention.
+ * <p>
+ * The first attempt claims the key of its author with a lightweight transaction, a retry finds
+ * the id claimed by the first attempt and asks that entity again, which decides from its own state
+ * whether the post is still to be added. An entity never has to be read for a key that was not
+ * seen before, and a deleted post keeps a tombstone, so a retry does not add it again.
+ */
+@Singleton
+public class IdempotencyKeys {
+
+  private final CassandraSession session;
+  private final int retentionSeconds;
+
+  // Will complete when post_idempotency_keys has been successfully created
+  private volatile CompletableFuture<Done> table;
+
+  @Inject
+  public IdempotencyKeys(CassandraSession session, Config config) {
+    this.session = session;
+    this.retentionSeconds = (int) config.getDuration("blog.idempotency.retention", TimeUnit.SECONDS);
+  }
+
+  /**
+   * The id of the post added with the key by the given author, a new one if the key was not used
+   * within the retention.
+   */
+  CompletionStage<String> postId(String author, String key) {
+    String id = UUID.randomUUID().toString();
+    return table()
+            .thenCompose(done -> session.selectOne(
+                    "INSERT INTO post_idempotency_keys (author, key, id) VALUES (?, ?, ?) IF NOT EXISTS USING TTL ?",
+                    author, key, id, retentionSeconds))
+            // the row of a transaction that was not applied holds the id claimed before
+            .thenApply(row -> row.get().getBool("[applied]") ? id : row.get().getString("id"));
+  }
+
+  private synchronized CompletionStage<Done> table() {
+    if (table == null || table.isCompletedExceptionally()) {
+      table = session.executeCreateTable(
+              "CREATE TABLE IF NOT EXISTS post_idempotency_keys ("
+                      + "author text, key text, id text, PRIMARY KEY ((author, key)))")
+              .toCompletableFuture();
+    }
+    return table;
+  }
+}
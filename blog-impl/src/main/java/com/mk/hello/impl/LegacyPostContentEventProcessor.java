@@ -1,6 +1,8 @@
 package com.mk.hello.impl;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 import com.datastax.driver.core.BoundStatement;
@@ -17,104 +19,108 @@ import javax.inject.Inject;
 
 import static com.lightbend.lagom.javadsl.persistence.cassandra.CassandraReadSide.completedStatement;
 
-public class BlogEventProcessor extends ReadSideProcessor<BlogEvent> {
+/**
+ * Keeps the id and title of the posts in the postcontent table of earlier versions current, under
+ * the offset id the processor that used to write it stored. The list queries read it while the
+ * processors of the tables replacing it replay the journal (see {@link ProjectionReadiness}).
+ * <p>
+ * Only registered while blog.read-side.legacy-postcontent.enabled is on. The bodies are not kept,
+ * nothing reads them from this table anymore.
+ */
+public class LegacyPostContentEventProcessor extends ReadSideProcessor<BlogEvent> {
+
+    static final String OFFSET_ID = "blog_offset";
+    static final String TABLE = "postcontent";
 
     private final CassandraSession session;
     private final CassandraReadSide readSide;
+    private final BlogEventFeed feed;
 
-    private PreparedStatement writePreparedStatement = null; // initialized in prepare
-    private PreparedStatement updatePreparedStatement = null; // initialized in prepare
+    private PreparedStatement insertPreparedStatement = null; // initialized in prepare
+    private PreparedStatement updateTitlePreparedStatement = null; // initialized in prepare
     private PreparedStatement deletePreparedStatement = null; // initialized in prepare
 
-
     @Inject
-    public BlogEventProcessor(CassandraSession session, CassandraReadSide readSide) {
+    public LegacyPostContentEventProcessor(CassandraSession session, CassandraReadSide readSide, BlogEventFeed feed) {
         this.session = session;
         this.readSide = readSide;
+        this.feed = feed;
     }
 
     @Override
     public PSequence<AggregateEventTag<BlogEvent>> aggregateTags() {
-        return BlogEventTag.TAG.allTags();
+        return BlogEventTag.TAGS.allTags();
     }
 
     @Override
     public ReadSideHandler<BlogEvent> buildHandler() {
-        return readSide.<BlogEvent>builder("blog_offset")
+        return BlogEventTag.TAGS.withHandover(feed.handoverBarrier(OFFSET_ID), readSide.<BlogEvent>builder(OFFSET_ID)
                 .setGlobalPrepare(this::prepareCreateTables)
-                .setPrepare((ignored) -> prepareWriteBlog())
+                .setPrepare((ignored) -> prepareStatements())
                 .setEventHandler(BlogEvent.PostAdded.class, this::processPostAdded)
                 .setEventHandler(BlogEvent.PostUpdated.class, this::processPostUpdated)
+                .setEventHandler(BlogEvent.PostEdited.class, this::processPostEdited)
                 .setEventHandler(BlogEvent.PostDeleted.class, this::processPostDeleted)
-                .build();
+                .build());
     }
 
     private CompletionStage<Done> prepareCreateTables() {
         // @formatter:off
         return session.executeCreateTable(
-                "CREATE TABLE IF NOT EXISTS postcontent ("
+                "CREATE TABLE IF NOT EXISTS " + TABLE + " ("
                         + "id text, timestamp bigint, title text, body text, author text, "
                         + "PRIMARY KEY (author, timestamp))");
         // @formatter:on
     }
 
-    private CompletionStage<Done> prepareWriteBlog() {
-
-        // prepare insert statement
-        return session.prepare("INSERT INTO postcontent (author, timestamp, title, body, id) VALUES (?, ?, ?, ?, ?)").thenApply(ps -> {
-            writePreparedStatement = ps;
-
-            // prepare update statement
-            prepareUpdateBlog();
-
-            // prepare delete statement
-            prepareDeleteBlog();
-
-            return Done.getInstance();
-        });
-    }
-
-    private CompletionStage<Done> prepareUpdateBlog() {
-        return session.prepare("UPDATE postcontent set title = ?, body = ? where author = ? and timestamp = ?").thenApply(ps -> {
-            updatePreparedStatement = ps;
-            return Done.getInstance();
-        });
-    }
-
-    private CompletionStage<Done> prepareDeleteBlog() {
-        return session.prepare("DELETE FROM postcontent WHERE author = ? and timestamp = ?").thenApply(ps -> {
+    private CompletionStage<Done> prepareStatements() {
+        return session.prepare("INSERT INTO " + TABLE + " (author, timestamp, title, id) VALUES (?, ?, ?, ?)").thenCompose(ps -> {
+            insertPreparedStatement = ps;
+            return session.prepare("UPDATE " + TABLE + " set title = ? where author = ? and timestamp = ?");
+        }).thenCompose(ps -> {
+            updateTitlePreparedStatement = ps;
+            return session.prepare("DELETE FROM " + TABLE + " WHERE author = ? and timestamp = ?");
+        }).thenApply(ps -> {
             deletePreparedStatement = ps;
             return Done.getInstance();
         });
     }
 
     private CompletionStage<List<BoundStatement>> processPostAdded(BlogEvent.PostAdded event) {
-
         return completedStatement(
-                writePreparedStatement.bind(
+                insertPreparedStatement.bind(
                         event.getContent().getAuthor(),
                         event.getTimestamp().toEpochMilli(),
                         event.getContent().getTitle(),
-                        event.getContent().getBody(),
                         event.getId()
                 )
         );
     }
 
     private CompletionStage<List<BoundStatement>> processPostUpdated(BlogEvent.PostUpdated event) {
-
         return completedStatement(
-                updatePreparedStatement.bind(
+                updateTitlePreparedStatement.bind(
                         event.getContent().getTitle(),
-                        event.getContent().getBody(),
                         event.getContent().getAuthor(),
                         event.getTimestamp().toEpochMilli()
                 )
         );
     }
 
-    private CompletionStage<List<BoundStatement>> processPostDeleted(BlogEvent.PostDeleted event) {
+    private CompletionStage<List<BoundStatement>> processPostEdited(BlogEvent.PostEdited event) {
+        if (!event.getTitle().isPresent()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        return completedStatement(
+                updateTitlePreparedStatement.bind(
+                        event.getTitle().get(),
+                        event.getAuthor(),
+                        event.getTimestamp().toEpochMilli()
+                )
+        );
+    }
 
+    private CompletionStage<List<BoundStatement>> processPostDeleted(BlogEvent.PostDeleted event) {
         return completedStatement(
                 deletePreparedStatement.bind(
                         event.getAuthor(),
@@ -122,5 +128,4 @@ public class BlogEventProcessor extends ReadSideProcessor<BlogEvent> {
                 )
         );
     }
-
 }
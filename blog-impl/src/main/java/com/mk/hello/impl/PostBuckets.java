@@ -0,0 +1,165 @@
+package com.mk.hello.impl;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.lightbend.lagom.javadsl.api.transport.BadRequest;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * The posts of an author are partitioned by the month they were created in (UTC), so that no
+ * partition grows with the whole history of an author. post_months lists the months an author
+ * has posts in, newest first, and the queries below walk them until they have enough rows.
+ * The global post_timeline is walked the same way, by day through timeline_days.
+ * <p>
+ * The queries read the tables of the generation they are given (see {@link ReadTables}).
+ */
+final class PostBuckets {
+
+  private static final String TOKEN_SEPARATOR = ":";
+  // timeline_days holds all days in a single partition, a few hundred rows per year
+  static final int TIMELINE_BUCKET = 0;
+
+  private PostBuckets() {
+  }
+
+  /**
+   * Bucket of a post created at the given time, as yyyyMM.
+   */
+  static int monthOf(Instant timestamp) {
+    ZonedDateTime utc = timestamp.atZone(ZoneOffset.UTC);
+    return utc.getYear() * 100 + utc.getMonthValue();
+  }
+
+  static CompletionStage<List<Integer>> months(CassandraSession db, ReadTables.Generation tables, String author) {
+    return db.selectAll("SELECT month FROM " + tables.table("post_months") + " WHERE author = ?", author)
+            .thenApply(rows -> rows.stream().map(row -> row.getInt("month")).collect(Collectors.toList()));
+  }
+
+  /**
+   * The newest {@code limit} rows of post_summary_by_month of the author.
+   */
+  static CompletionStage<List<Row>> newest(CassandraSession db, ReadTables.Generation tables, String author, int limit) {
+    return months(db, tables, author)
+            .thenCompose(months -> newest(db, tables, author, months, 0, limit, new ArrayList<>()));
+  }
+
+  private static CompletionStage<List<Row>> newest(CassandraSession db, ReadTables.Generation tables, String author,
+                                                   List<Integer> months, int index, int limit, List<Row> rows) {
+    if (index >= months.size() || rows.size() >= limit) {
+      return CompletableFuture.completedFuture(rows);
+    }
+    return db.selectAll("SELECT id, title FROM " + tables.table("post_summary_by_month") + " WHERE author = ? AND month = ? LIMIT ?",
+            author, months.get(index), limit - rows.size())
+            .thenCompose(bucket -> {
+              rows.addAll(bucket);
+              return newest(db, tables, author, months, index + 1, limit, rows);
+            });
+  }
+
+  /**
+   * One page of post_summary_by_month of the author, newest first. The token holds the month
+   * the next page starts in and the paging state within that month, if any.
+   */
+  static CompletionStage<CassandraPaging.Page> authorPage(CassandraSession db, ReadTables.Generation tables, String author,
+                                                          Integer pageSize, Optional<String> pageToken) {
+    validatePageSize(pageSize);
+    Optional<Integer> startBucket = pageToken.map(PostBuckets::tokenBucket);
+    Optional<String> pagingState = pageToken.flatMap(PostBuckets::tokenPagingState);
+
+    return months(db, tables, author).thenCompose(months -> page(db, months, month -> new SimpleStatement(
+            "SELECT id, title FROM " + tables.table("post_summary_by_month") + " WHERE author = ? AND month = ?", author, month),
+            startBucket, pagingState, pageSize));
+  }
+
+  /**
+   * Bucket of the post_timeline post created at the given time, as yyyyMMdd.
+   */
+  static int dayOf(Instant timestamp) {
+    ZonedDateTime utc = timestamp.atZone(ZoneOffset.UTC);
+    return (utc.getYear() * 100 + utc.getMonthValue()) * 100 + utc.getDayOfMonth();
+  }
+
+  static CompletionStage<List<Integer>> days(CassandraSession db, ReadTables.Generation tables) {
+    return db.selectAll("SELECT day FROM " + tables.table("timeline_days") + " WHERE bucket = ?", TIMELINE_BUCKET)
+            .thenApply(rows -> rows.stream().map(row -> row.getInt("day")).collect(Collectors.toList()));
+  }
+
+  /**
+   * One page of post_timeline, newest first, with the same kind of token as {@link #authorPage}.
+   */
+  static CompletionStage<CassandraPaging.Page> timelinePage(CassandraSession db, ReadTables.Generation tables,
+                                                            Integer pageSize, Optional<String> pageToken) {
+    validatePageSize(pageSize);
+    Optional<Integer> startBucket = pageToken.map(PostBuckets::tokenBucket);
+    Optional<String> pagingState = pageToken.flatMap(PostBuckets::tokenPagingState);
+
+    return days(db, tables).thenCompose(days -> page(db, days, day -> new SimpleStatement(
+            "SELECT id, title FROM " + tables.table("post_timeline") + " WHERE day = ?", day),
+            startBucket, pagingState, pageSize));
+  }
+
+  private static void validatePageSize(Integer pageSize) {
+    if (pageSize == null || pageSize <= 0) {
+      throw new BadRequest("pageSize must be positive");
+    }
+  }
+
+  private static CompletionStage<CassandraPaging.Page> page(CassandraSession db, List<Integer> buckets, IntFunction<Statement> query,
+                                                            Optional<Integer> startBucket, Optional<String> pagingState, int pageSize) {
+    int index = startBucket.map(buckets::indexOf).orElse(0);
+    if (index < 0) {
+      // the bucket of the token has no posts left
+      return CompletableFuture.completedFuture(new CassandraPaging.Page(new ArrayList<>(), Optional.empty()));
+    }
+    return page(db, buckets, query, index, pagingState, pageSize, new ArrayList<>());
+  }
+
+  private static CompletionStage<CassandraPaging.Page> page(CassandraSession db, List<Integer> buckets, IntFunction<Statement> query,
+                                                            int index, Optional<String> pagingState, int pageSize, List<Row> rows) {
+    if (index >= buckets.size()) {
+      return CompletableFuture.completedFuture(new CassandraPaging.Page(rows, Optional.empty()));
+    }
+    int bucket = buckets.get(index);
+
+    return CassandraPaging.selectPage(db, query.apply(bucket), pageSize - rows.size(), pagingState)
+            .thenCompose(result -> {
+              rows.addAll(result.getRows());
+              if (result.getNextPageToken().isPresent()) {
+                return CompletableFuture.completedFuture(
+                        new CassandraPaging.Page(rows, Optional.of(bucket + TOKEN_SEPARATOR + result.getNextPageToken().get())));
+              }
+              if (rows.size() >= pageSize) {
+                Optional<String> next = index + 1 < buckets.size()
+                        ? Optional.of(String.valueOf(buckets.get(index + 1))) : Optional.empty();
+                return CompletableFuture.completedFuture(new CassandraPaging.Page(rows, next));
+              }
+              return page(db, buckets, query, index + 1, Optional.empty(), pageSize, rows);
+            });
+  }
+
+  private static int tokenBucket(String token) {
+    int separator = token.indexOf(TOKEN_SEPARATOR);
+    try {
+      return Integer.parseInt(separator < 0 ? token : token.substring(0, separator));
+    } catch (NumberFormatException e) {
+      throw new BadRequest("Invalid pageToken");
+    }
+  }
+
+  private static Optional<String> tokenPagingState(String token) {
+    int separator = token.indexOf(TOKEN_SEPARATOR);
+    return separator < 0 ? Optional.empty() : Optional.of(token.substring(separator + 1));
+  }
+}
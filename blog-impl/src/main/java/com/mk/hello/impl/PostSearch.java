@@ -0,0 +1,169 @@
+package com.mk.hello.impl;
+
+import com.datastax.driver.core.Row;
+import com.lightbend.lagom.javadsl.api.transport.BadRequest;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+/**
+ * Queries the search index of the {@link PostSearchEventProcessor}. A search reads the posting
+ * lists of its terms in parallel, keeps the posts having all of them, ranks those by the sum of
+ * the scores of the terms and returns the top of the ranking. Only the titles of the returned
+ * page are read, so the cost of a search grows with the posts of its terms, not with the posts
+ * of the blog.
+ * <p>
+ * The posting lists are ordered by score, so the postings a search reads of a term found in more
+ * than blog.search.max-postings-per-term posts are those of the posts where the term scores
+ * highest. A single term search ranks exactly, a search of several terms may miss a post scoring
+ * low on a common term even though its sum would rank it high.
+ * <p>
+ * The ranking is computed again for every page. The token holds the score and the id of the last
+ * post of the previous page, the next page starts right after that post in the ranking.
+ */
+final class PostSearch {
+
+  private static final String TOKEN_SEPARATOR = ":";
+
+  // highest score first, ties by id
+  private static final Comparator<Map.Entry<String, Integer>> RANKING =
+          Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey());
+
+  private PostSearch() {
+  }
+
+  /**
+   * One page of the posts matching all terms of the query, rows with the id and the title.
+   */
+  static CompletionStage<CassandraPaging.Page> search(CassandraSession db, ReadTables.Generation tables,
+                                                     String query, Integer pageSize,
+                                                     Optional<String> pageToken, int maxPageSize,
+                                                     int maxQueryTerms, int maxPostingsPerTerm) {
+    if (pageSize == null || pageSize <= 0 || pageSize > maxPageSize) {
+      throw new BadRequest("pageSize must be between 1 and " + maxPageSize);
+    }
+    Set<String> terms = SearchTerms.ofQuery(query);
+    if (terms.isEmpty()) {
+      return CompletableFuture.completedFuture(new CassandraPaging.Page(new ArrayList<>(), Optional.empty()));
+    }
+    if (terms.size() > maxQueryTerms) {
+      throw new BadRequest("A query may have at most " + maxQueryTerms + " terms");
+    }
+    Optional<Map.Entry<String, Integer>> after = pageToken.map(PostSearch::parseToken);
+
+    List<CompletableFuture<Map<String, Integer>>> postings = new ArrayList<>();
+    for (String term : terms) {
+      postings.add(db.selectAll("SELECT id, score FROM " + tables.table("post_search_postings") + " WHERE term = ? LIMIT ?",
+              term, maxPostingsPerTerm)
+              .thenApply(PostSearch::scores)
+              .toCompletableFuture());
+    }
+
+    return CompletableFuture.allOf(postings.toArray(new CompletableFuture[0]))
+            .thenCompose(ignored -> {
+              List<Map<String, Integer>> lists = postings.stream().map(CompletableFuture::join).collect(Collectors.toList());
+              List<Map.Entry<String, Integer>> ranked = top(matches(lists), after, pageSize + 1);
+              boolean more = ranked.size() > pageSize;
+              List<Map.Entry<String, Integer>> page = more ? ranked.subList(0, pageSize) : ranked;
+              Optional<String> nextPageToken = more
+                      ? Optional.of(token(page.get(page.size() - 1)))
+                      : Optional.empty();
+              return titles(db, tables, page).thenApply(rows -> new CassandraPaging.Page(rows, nextPageToken));
+            });
+  }
+
+  /**
+   * Scores of the posts of a posting list, by id.
+   */
+  private static Map<String, Integer> scores(List<Row> postings) {
+    Map<String, Integer> scores = new HashMap<>();
+    for (Row row : postings) {
+      scores.put(row.getString("id"), row.getInt("score"));
+    }
+    return scores;
+  }
+
+  /**
+   * Posts in all posting lists with the sum of their scores, intersecting from the shortest list.
+   */
+  static Map<String, Integer> matches(List<Map<String, Integer>> postings) {
+    List<Map<String, Integer>> lists = new ArrayList<>(postings);
+    lists.sort(Comparator.comparingInt(Map::size));
+
+    Map<String, Integer> scores = lists.get(0);
+    for (Map<String, Integer> list : lists.subList(1, lists.size())) {
+      Map<String, Integer> next = new HashMap<>();
+      for (Map.Entry<String, Integer> posting : scores.entrySet()) {
+        Integer score = list.get(posting.getKey());
+        if (score != null) {
+          next.put(posting.getKey(), posting.getValue() + score);
+        }
+      }
+      scores = next;
+    }
+    return scores;
+  }
+
+  /**
+   * The first {@code count} matches of the ranking after the given match, kept in a bounded heap.
+   */
+  static List<Map.Entry<String, Integer>> top(Map<String, Integer> matches,
+                                                      Optional<Map.Entry<String, Integer>> after, int count) {
+    // the worst ranked match of the heap on top
+    PriorityQueue<Map.Entry<String, Integer>> heap = new PriorityQueue<>(count + 1, RANKING.reversed());
+    for (Map.Entry<String, Integer> match : matches.entrySet()) {
+      if (after.isPresent() && RANKING.compare(match, after.get()) <= 0) {
+        continue;
+      }
+      heap.add(match);
+      if (heap.size() > count) {
+        heap.poll();
+      }
+    }
+    List<Map.Entry<String, Integer>> top = new ArrayList<>(heap);
+    top.sort(RANKING);
+    return top;
+  }
+
+  /**
+   * Rows of post_search_documents of the page, in the order of the page. Posts deleted meanwhile are
+   * left out.
+   */
+  private static CompletionStage<List<Row>> titles(CassandraSession db, ReadTables.Generation tables,
+                                                   List<Map.Entry<String, Integer>> page) {
+    if (page.isEmpty()) {
+      return CompletableFuture.completedFuture(new ArrayList<>());
+    }
+    List<String> ids = page.stream().map(Map.Entry::getKey).collect(Collectors.toList());
+    return db.selectAll("SELECT id, title FROM " + tables.table("post_search_documents") + " WHERE id IN ?", ids)
+            .thenApply(rows -> {
+              Map<String, Row> byId = rows.stream().collect(Collectors.toMap(row -> row.getString("id"), row -> row));
+              return ids.stream().filter(byId::containsKey).map(byId::get).collect(Collectors.toList());
+            });
+  }
+
+  static String token(Map.Entry<String, Integer> last) {
+    return last.getValue() + TOKEN_SEPARATOR + last.getKey();
+  }
+
+  static Map.Entry<String, Integer> parseToken(String token) {
+    int separator = token.indexOf(TOKEN_SEPARATOR);
+    try {
+      return new AbstractMap.SimpleImmutableEntry<>(
+              token.substring(separator + 1), Integer.parseInt(token.substring(0, separator)));
+    } catch (RuntimeException e) {
+      throw new BadRequest("Invalid pageToken");
+    }
+  }
+}
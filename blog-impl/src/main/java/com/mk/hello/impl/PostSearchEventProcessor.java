@@ -0,0 +1,251 @@
+package com.mk.hello.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraReadSide;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.typesafe.config.Config;
+
+import akka.Done;
+import org.pcollections.PSequence;
+
+import javax.inject.Inject;
+
+/**
+ * Maintains the search index of the posts: post_search_postings, the posting list of every term
+ * with the score of the term in each post, highest score first, and post_search_documents, the
+ * indexed title, body and terms of every post. A search only reads the posting lists of its
+ * terms (see {@link PostSearch}), so it costs as much as the posts matching it.
+ * <p>
+ * The postings used to be ordered by post id (post_search_terms and post_search_docs), which
+ * made a search truncating a long posting list drop arbitrary posts instead of the lowest
+ * scoring ones. The index was moved to new tables under a new offset id, so it is built again
+ * from the journal, meanwhile searches answer 503 (see {@link ProjectionReadiness}). The old
+ * tables are no longer read and can be dropped once every node runs this version.
+ * <p>
+ * Edits and deletes read the indexed document to apply the body patch and to remove the terms
+ * the post no longer has. The events of a post are all in one tag and handled one at a time, so
+ * the document read is the one written for the previous event of the post.
+ * <p>
+ * Every write carries the time of the offset of its event as its write timestamp (see
+ * {@link #writeTime}) and a body patch is only applied to a document written before its event, so
+ * handling an event again leaves the index unchanged.
+ * <p>
+ * The tables are written in the generation of {@link ReadTables} current when the handler starts.
+ */
+public class PostSearchEventProcessor extends ReadSideProcessor<BlogEvent> implements Projection {
+
+    static final String OFFSET_ID = "post_search_v2_offset";
+
+    // 100ns intervals between the UUID epoch (1582-10-15) and the unix epoch
+    private static final long UUID_EPOCH_OFFSET = 0x01B21DD213814000L;
+
+    private final CassandraSession session;
+    private final CassandraReadSide readSide;
+    private final ProjectionProgress progress;
+    private final ProjectionMetrics metrics;
+    private final ReadSidePauses pauses;
+    private final ReadTables tables;
+    private final BlogEventFeed feed;
+    private final int maxTermsPerPost;
+
+    private Projection.Writer writer = null; // initialized in prepare
+
+    @Inject
+    public PostSearchEventProcessor(CassandraSession session, CassandraReadSide readSide,
+            ProjectionProgress progress, ProjectionMetrics metrics, ReadSidePauses pauses,
+            ReadTables tables, BlogEventFeed feed, Config config) {
+        this.session = session;
+        this.readSide = readSide;
+        this.progress = progress;
+        this.metrics = metrics;
+        this.pauses = pauses;
+        this.tables = tables;
+        this.feed = feed;
+        this.maxTermsPerPost = config.getInt("blog.search.max-terms-per-post");
+    }
+
+    @Override
+    public PSequence<AggregateEventTag<BlogEvent>> aggregateTags() {
+        return BlogEventTag.TAGS.allTags();
+    }
+
+    @Override
+    public ReadSideHandler<BlogEvent> buildHandler() {
+        return BlogEventTag.TAGS.withHandover(feed.handoverBarrier(OFFSET_ID), pauses.pausable(OFFSET_ID, metrics.instrumented(OFFSET_ID, progress.publishing(ProjectionProgress.POST_SEARCH, readSide.<BlogEvent>builder(OFFSET_ID)
+                .setGlobalPrepare(() -> tables.load(OFFSET_ID).thenCompose(this::createTables))
+                .setPrepare(tag -> tables.load(OFFSET_ID).thenCompose(generation -> writer(generation, tag)).thenApply(w -> {
+                    writer = w;
+                    return Done.getInstance();
+                }))
+                .setEventHandler(BlogEvent.PostAdded.class, (event, offset) -> writer.statements(event, offset))
+                .setEventHandler(BlogEvent.PostUpdated.class, (event, offset) -> writer.statements(event, offset))
+                .setEventHandler(BlogEvent.PostEdited.class, (event, offset) -> writer.statements(event, offset))
+                .setEventHandler(BlogEvent.PostDeleted.class, (event, offset) -> writer.statements(event, offset))
+                .build()))));
+    }
+
+    @Override
+    public String offsetId() {
+        return OFFSET_ID;
+    }
+
+    @Override
+    public CompletionStage<Done> createTables(ReadTables.Generation generation) {
+        // @formatter:off
+        return session.executeCreateTable(
+                "CREATE TABLE IF NOT EXISTS " + generation.table("post_search_postings") + " ("
+                        + "term text, score int, id text, "
+                        + "PRIMARY KEY (term, score, id)) "
+                        + "WITH CLUSTERING ORDER BY (score DESC, id ASC)")
+        .thenCompose(done -> session.executeCreateTable(
+                "CREATE TABLE IF NOT EXISTS " + generation.table("post_search_documents") + " ("
+                        + "id text, title text, body text, terms map<text, int>, "
+                        + "PRIMARY KEY (id))"));
+        // @formatter:on
+    }
+
+    @Override
+    public CompletionStage<Projection.Writer> writer(ReadTables.Generation generation, AggregateEventTag<BlogEvent> tag) {
+        String documents = generation.table("post_search_documents");
+        String postings = generation.table("post_search_postings");
+        SearchWriter writer = new SearchWriter();
+        return session.prepare("SELECT title, body, terms, writetime(body) AS written FROM " + documents + " WHERE id = ?").thenCompose(ps -> {
+            writer.selectDocPreparedStatement = ps;
+            return session.prepare("INSERT INTO " + documents + " (id, title, body, terms) VALUES (?, ?, ?, ?) USING TIMESTAMP ?");
+        }).thenCompose(ps -> {
+            writer.insertDocPreparedStatement = ps;
+            return session.prepare("DELETE FROM " + documents + " USING TIMESTAMP ? WHERE id = ?");
+        }).thenCompose(ps -> {
+            writer.deleteDocPreparedStatement = ps;
+            return session.prepare("INSERT INTO " + postings + " (term, score, id) VALUES (?, ?, ?) USING TIMESTAMP ?");
+        }).thenCompose(ps -> {
+            writer.insertTermPreparedStatement = ps;
+            return session.prepare("DELETE FROM " + postings + " USING TIMESTAMP ? WHERE term = ? and score = ? and id = ?");
+        }).thenApply(ps -> {
+            writer.deleteTermPreparedStatement = ps;
+            return writer;
+        });
+    }
+
+    /**
+     * Write timestamp in microseconds for the event at the given offset. Only the time based
+     * offsets of the Cassandra journal carry a time, any other offset fails the write: a sequence
+     * number as write timestamp would lose against every earlier write.
+     */
+    static long writeTime(Offset offset) {
+        if (offset instanceof Offset.TimeBasedUUID) {
+            return (((Offset.TimeBasedUUID) offset).value().timestamp() - UUID_EPOCH_OFFSET) / 10;
+        }
+        throw new IllegalArgumentException("No write time for offset " + offset);
+    }
+
+    private static Map<String, Integer> termsOf(Row doc) {
+        return doc.getMap("terms", String.class, Integer.class);
+    }
+
+    private final class SearchWriter implements Projection.Writer {
+
+        private PreparedStatement selectDocPreparedStatement = null;
+        private PreparedStatement insertDocPreparedStatement = null;
+        private PreparedStatement deleteDocPreparedStatement = null;
+        private PreparedStatement insertTermPreparedStatement = null;
+        private PreparedStatement deleteTermPreparedStatement = null;
+
+        @Override
+        public CompletionStage<List<BoundStatement>> statements(BlogEvent event, Offset offset) {
+            if (event instanceof BlogEvent.PostAdded) {
+                return processPostAdded((BlogEvent.PostAdded) event, offset);
+            } else if (event instanceof BlogEvent.PostUpdated) {
+                return processPostUpdated((BlogEvent.PostUpdated) event, offset);
+            } else if (event instanceof BlogEvent.PostEdited) {
+                return processPostEdited((BlogEvent.PostEdited) event, offset);
+            } else if (event instanceof BlogEvent.PostDeleted) {
+                return processPostDeleted((BlogEvent.PostDeleted) event, offset);
+            }
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        private CompletionStage<List<BoundStatement>> processPostAdded(BlogEvent.PostAdded event, Offset offset) {
+            return CompletableFuture.completedFuture(index(event.getId(),
+                    event.getContent().getTitle(), event.getContent().getBody(), Collections.emptyMap(),
+                    writeTime(offset)));
+        }
+
+        private CompletionStage<List<BoundStatement>> processPostUpdated(BlogEvent.PostUpdated event, Offset offset) {
+            if (event.getId() == null) {
+                // written before the id was recorded, the post cannot be found
+                return CompletableFuture.completedFuture(Collections.emptyList());
+            }
+            return selectDoc(event.getId()).thenApply(doc -> index(event.getId(),
+                    event.getContent().getTitle(), event.getContent().getBody(),
+                    doc.map(PostSearchEventProcessor::termsOf).orElse(Collections.emptyMap()),
+                    writeTime(offset)));
+        }
+
+        private CompletionStage<List<BoundStatement>> processPostEdited(BlogEvent.PostEdited event, Offset offset) {
+            long writeTime = writeTime(offset);
+            return selectDoc(event.getId()).thenApply(doc -> {
+                // nothing to patch if the post was deleted, or if the document already has the edit
+                if (!doc.isPresent() || doc.get().getLong("written") >= writeTime) {
+                    return Collections.emptyList();
+                }
+                Row row = doc.get();
+                String body = event.getBody().map(patch -> patch.applyTo(row.getString("body"))).orElse(row.getString("body"));
+                return index(event.getId(), event.getTitle().orElse(row.getString("title")), body, termsOf(row), writeTime);
+            });
+        }
+
+        private CompletionStage<List<BoundStatement>> processPostDeleted(BlogEvent.PostDeleted event, Offset offset) {
+            if (event.getId() == null) {
+                return CompletableFuture.completedFuture(Collections.emptyList());
+            }
+            long writeTime = writeTime(offset);
+            return selectDoc(event.getId()).thenApply(doc -> {
+                List<BoundStatement> statements = new ArrayList<>();
+                doc.ifPresent(row -> termsOf(row).forEach((term, score) ->
+                        statements.add(deleteTermPreparedStatement.bind(writeTime, term, score, event.getId()))));
+                statements.add(deleteDocPreparedStatement.bind(writeTime, event.getId()));
+                return statements;
+            });
+        }
+
+        private CompletionStage<Optional<Row>> selectDoc(String id) {
+            return session.selectOne(selectDocPreparedStatement.bind(id));
+        }
+
+        /**
+         * Statements moving the post from the terms it was indexed with to the terms of its content.
+         * Postings whose score did not change are left alone, the score is part of the key of a
+         * posting, so a changed score replaces the posting.
+         */
+        private List<BoundStatement> index(String id, String title, String body, Map<String, Integer> indexed, long writeTime) {
+            Map<String, Integer> terms = SearchTerms.ofPost(title, body, maxTermsPerPost);
+            List<BoundStatement> statements = new ArrayList<>();
+            for (Map.Entry<String, Integer> term : indexed.entrySet()) {
+                if (!term.getValue().equals(terms.get(term.getKey()))) {
+                    statements.add(deleteTermPreparedStatement.bind(writeTime, term.getKey(), term.getValue(), id));
+                }
+            }
+            for (Map.Entry<String, Integer> term : terms.entrySet()) {
+                if (!term.getValue().equals(indexed.get(term.getKey()))) {
+                    statements.add(insertTermPreparedStatement.bind(term.getKey(), term.getValue(), id, writeTime));
+                }
+            }
+            statements.add(insertDocPreparedStatement.bind(id, title, body, terms, writeTime));
+            return statements;
+        }
+    }
+}
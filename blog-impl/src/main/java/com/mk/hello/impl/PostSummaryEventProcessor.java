@@ -0,0 +1,188 @@
+package com.mk.hello.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraReadSide;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+
+import akka.Done;
+import org.pcollections.PSequence;
+
+import javax.inject.Inject;
+
+import static com.lightbend.lagom.javadsl.persistence.cassandra.CassandraReadSide.completedStatement;
+
+/**
+ * Maintains post_summary_by_month, the id and title of every post partitioned by author and
+ * month, so that the list queries do not read the post bodies, and post_months, the months every
+ * author has posts in (see {@link PostBuckets}). Body only edits do not touch them.
+ * <p>
+ * The tables are written in the generation of {@link ReadTables} current when the handler starts.
+ */
+public class PostSummaryEventProcessor extends ReadSideProcessor<BlogEvent> implements Projection {
+
+    static final String OFFSET_ID = "post_summary_offset_by_month";
+
+    private final CassandraSession session;
+    private final CassandraReadSide readSide;
+    private final ProjectionProgress progress;
+    private final ProjectionMetrics metrics;
+    private final ReadSidePauses pauses;
+    private final ReadTables tables;
+    private final BlogEventFeed feed;
+
+    private Projection.Writer writer = null; // initialized in prepare
+
+    @Inject
+    public PostSummaryEventProcessor(CassandraSession session, CassandraReadSide readSide,
+            ProjectionProgress progress, ProjectionMetrics metrics, ReadSidePauses pauses,
+            ReadTables tables, BlogEventFeed feed) {
+        this.session = session;
+        this.readSide = readSide;
+        this.progress = progress;
+        this.metrics = metrics;
+        this.pauses = pauses;
+        this.tables = tables;
+        this.feed = feed;
+    }
+
+    @Override
+    public PSequence<AggregateEventTag<BlogEvent>> aggregateTags() {
+        return BlogEventTag.TAGS.allTags();
+    }
+
+    @Override
+    public ReadSideHandler<BlogEvent> buildHandler() {
+        return BlogEventTag.TAGS.withHandover(feed.handoverBarrier(OFFSET_ID), pauses.pausable(OFFSET_ID, metrics.instrumented(OFFSET_ID, progress.publishing(ProjectionProgress.POST_SUMMARY, readSide.<BlogEvent>builder(OFFSET_ID)
+                .setGlobalPrepare(() -> tables.load(OFFSET_ID).thenCompose(this::createTables))
+                .setPrepare(tag -> tables.load(OFFSET_ID).thenCompose(generation -> writer(generation, tag)).thenApply(w -> {
+                    writer = w;
+                    return Done.getInstance();
+                }))
+                .setEventHandler(BlogEvent.PostAdded.class, (event, offset) -> writer.statements(event, offset))
+                .setEventHandler(BlogEvent.PostUpdated.class, (event, offset) -> writer.statements(event, offset))
+                .setEventHandler(BlogEvent.PostEdited.class, (event, offset) -> writer.statements(event, offset))
+                .setEventHandler(BlogEvent.PostDeleted.class, (event, offset) -> writer.statements(event, offset))
+                .build()))));
+    }
+
+    @Override
+    public String offsetId() {
+        return OFFSET_ID;
+    }
+
+    @Override
+    public CompletionStage<Done> createTables(ReadTables.Generation generation) {
+        // @formatter:off
+        return session.executeCreateTable(
+                "CREATE TABLE IF NOT EXISTS " + generation.table("post_summary_by_month") + " ("
+                        + "author text, month int, timestamp bigint, id text, title text, "
+                        + "PRIMARY KEY ((author, month), timestamp)) "
+                        + "WITH CLUSTERING ORDER BY (timestamp DESC)")
+        .thenCompose(done -> session.executeCreateTable(
+                "CREATE TABLE IF NOT EXISTS " + generation.table("post_months") + " ("
+                        + "author text, month int, "
+                        + "PRIMARY KEY (author, month)) "
+                        + "WITH CLUSTERING ORDER BY (month DESC)"));
+        // @formatter:on
+    }
+
+    @Override
+    public CompletionStage<Projection.Writer> writer(ReadTables.Generation generation, AggregateEventTag<BlogEvent> tag) {
+        String summaries = generation.table("post_summary_by_month");
+        SummaryWriter writer = new SummaryWriter();
+        return session.prepare("INSERT INTO " + summaries + " (author, month, timestamp, id, title) VALUES (?, ?, ?, ?, ?)").thenCompose(ps -> {
+            writer.insertPreparedStatement = ps;
+            return session.prepare("INSERT INTO " + generation.table("post_months") + " (author, month) VALUES (?, ?)");
+        }).thenCompose(ps -> {
+            writer.insertMonthPreparedStatement = ps;
+            return session.prepare("UPDATE " + summaries + " set title = ? where author = ? and month = ? and timestamp = ?");
+        }).thenCompose(ps -> {
+            writer.updateTitlePreparedStatement = ps;
+            return session.prepare("DELETE FROM " + summaries + " WHERE author = ? and month = ? and timestamp = ?");
+        }).thenApply(ps -> {
+            writer.deletePreparedStatement = ps;
+            return writer;
+        });
+    }
+
+    private static final class SummaryWriter implements Projection.Writer {
+
+        private PreparedStatement insertPreparedStatement = null;
+        private PreparedStatement insertMonthPreparedStatement = null;
+        private PreparedStatement updateTitlePreparedStatement = null;
+        private PreparedStatement deletePreparedStatement = null;
+
+        @Override
+        public CompletionStage<List<BoundStatement>> statements(BlogEvent event, Offset offset) {
+            if (event instanceof BlogEvent.PostAdded) {
+                return processPostAdded((BlogEvent.PostAdded) event);
+            } else if (event instanceof BlogEvent.PostUpdated) {
+                return processPostUpdated((BlogEvent.PostUpdated) event);
+            } else if (event instanceof BlogEvent.PostEdited) {
+                return processPostEdited((BlogEvent.PostEdited) event);
+            } else if (event instanceof BlogEvent.PostDeleted) {
+                return processPostDeleted((BlogEvent.PostDeleted) event);
+            }
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        private CompletionStage<List<BoundStatement>> processPostAdded(BlogEvent.PostAdded event) {
+            int month = PostBuckets.monthOf(event.getTimestamp());
+            return CompletableFuture.completedFuture(Arrays.asList(
+                    insertPreparedStatement.bind(
+                            event.getContent().getAuthor(),
+                            month,
+                            event.getTimestamp().toEpochMilli(),
+                            event.getId(),
+                            event.getContent().getTitle()
+                    ),
+                    insertMonthPreparedStatement.bind(event.getContent().getAuthor(), month)
+            ));
+        }
+
+        private CompletionStage<List<BoundStatement>> processPostUpdated(BlogEvent.PostUpdated event) {
+            return completedStatement(
+                    updateTitlePreparedStatement.bind(
+                            event.getContent().getTitle(),
+                            event.getContent().getAuthor(),
+                            PostBuckets.monthOf(event.getTimestamp()),
+                            event.getTimestamp().toEpochMilli()
+                    )
+            );
+        }
+
+        private CompletionStage<List<BoundStatement>> processPostEdited(BlogEvent.PostEdited event) {
+            if (!event.getTitle().isPresent()) {
+                return CompletableFuture.completedFuture(Collections.emptyList());
+            }
+            return completedStatement(
+                    updateTitlePreparedStatement.bind(
+                            event.getTitle().get(),
+                            event.getAuthor(),
+                            PostBuckets.monthOf(event.getTimestamp()),
+                            event.getTimestamp().toEpochMilli()
+                    )
+            );
+        }
+
+        private CompletionStage<List<BoundStatement>> processPostDeleted(BlogEvent.PostDeleted event) {
+            return completedStatement(
+                    deletePreparedStatement.bind(
+                            event.getAuthor(),
+                            PostBuckets.monthOf(event.getTimestamp()),
+                            event.getTimestamp().toEpochMilli()
+                    )
+            );
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.mk.hello.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraReadSide;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+
+import akka.Done;
+import org.pcollections.PSequence;
+
+import javax.inject.Inject;
+
+import static com.lightbend.lagom.javadsl.persistence.cassandra.CassandraReadSide.completedStatement;
+
+/**
+ * Maintains post_timeline, the id and title of all posts partitioned by the day they were
+ * created on (UTC) and newest first within a day, and timeline_days, the days that have posts.
+ * Reading the latest posts touches the partitions of the last day or two only.
+ * <p>
+ * The tables are written in the generation of {@link ReadTables} current when the handler starts.
+ *
+ * @see PostBuckets#timelinePage
+ */
+public class PostTimelineEventProcessor extends ReadSideProcessor<BlogEvent> implements Projection {
+
+    static final String OFFSET_ID = "post_timeline_offset";
+
+    private final CassandraSession session;
+    private final CassandraReadSide readSide;
+    private final ProjectionProgress progress;
+    private final ProjectionMetrics metrics;
+    private final ReadSidePauses pauses;
+    private final ReadTables tables;
+    private final BlogEventFeed feed;
+
+    private Projection.Writer writer = null; // initialized in prepare
+
+    @Inject
+    public PostTimelineEventProcessor(CassandraSession session, CassandraReadSide readSide,
+            ProjectionProgress progress, ProjectionMetrics metrics, ReadSidePauses pauses,
+            ReadTables tables, BlogEventFeed feed) {
+        this.session = session;
+        this.readSide = readSide;
+        this.progress = progress;
+        this.metrics = metrics;
+        this.pauses = pauses;
+        this.tables = tables;
+        this.feed = feed;
+    }
+
+    @Override
+    public PSequence<AggregateEventTag<BlogEvent>> aggregateTags() {
+        return BlogEventTag.TAGS.allTags();
+    }
+
+    @Override
+    public ReadSideHandler<BlogEvent> buildHandler() {
+        return BlogEventTag.TAGS.withHandover(feed.handoverBarrier(OFFSET_ID), pauses.pausable(OFFSET_ID, metrics.instrumented(OFFSET_ID, progress.publishing(ProjectionProgress.POST_TIMELINE, readSide.<BlogEvent>builder(OFFSET_ID)
+                .setGlobalPrepare(() -> tables.load(OFFSET_ID).thenCompose(this::createTables))
+                .setPrepare(tag -> tables.load(OFFSET_ID).thenCompose(generation -> writer(generation, tag)).thenApply(w -> {
+                    writer = w;
+                    return Done.getInstance();
+                }))
+                .setEventHandler(BlogEvent.PostAdded.class, (event, offset) -> writer.statements(event, offset))
+                .setEventHandler(BlogEvent.PostUpdated.class, (event, offset) -> writer.statements(event, offset))
+                .setEventHandler(BlogEvent.PostEdited.class, (event, offset) -> writer.statements(event, offset))
+                .setEventHandler(BlogEvent.PostDeleted.class, (event, offset) -> writer.statements(event, offset))
+                .build()))));
+    }
+
+    @Override
+    public String offsetId() {
+        return OFFSET_ID;
+    }
+
+    @Override
+    public CompletionStage<Done> createTables(ReadTables.Generation generation) {
+        // @formatter:off
+        // author and timestamp identify a post, like in post_summary_by_month
+        return session.executeCreateTable(
+                "CREATE TABLE IF NOT EXISTS " + generation.table("post_timeline") + " ("
+                        + "day int, timestamp bigint, author text, id text, title text, "
+                        + "PRIMARY KEY (day, timestamp, author)) "
+                        + "WITH CLUSTERING ORDER BY (timestamp DESC, author ASC)")
+        .thenCompose(done -> session.executeCreateTable(
+                "CREATE TABLE IF NOT EXISTS " + generation.table("timeline_days") + " ("
+                        + "bucket int, day int, "
+                        + "PRIMARY KEY (bucket, day)) "
+                        + "WITH CLUSTERING ORDER BY (day DESC)"));
+        // @formatter:on
+    }
+
+    @Override
+    public CompletionStage<Projection.Writer> writer(ReadTables.Generation generation, AggregateEventTag<BlogEvent> tag) {
+        String timeline = generation.table("post_timeline");
+        TimelineWriter writer = new TimelineWriter();
+        return session.prepare("INSERT INTO " + timeline + " (day, timestamp, author, id, title) VALUES (?, ?, ?, ?, ?)").thenCompose(ps -> {
+            writer.insertPreparedStatement = ps;
+            return session.prepare("INSERT INTO " + generation.table("timeline_days") + " (bucket, day) VALUES (?, ?)");
+        }).thenCompose(ps -> {
+            writer.insertDayPreparedStatement = ps;
+            return session.prepare("UPDATE " + timeline + " set title = ? where day = ? and timestamp = ? and author = ?");
+        }).thenCompose(ps -> {
+            writer.updateTitlePreparedStatement = ps;
+            return session.prepare("DELETE FROM " + timeline + " WHERE day = ? and timestamp = ? and author = ?");
+        }).thenApply(ps -> {
+            writer.deletePreparedStatement = ps;
+            return writer;
+        });
+    }
+
+    private static final class TimelineWriter implements Projection.Writer {
+
+        private PreparedStatement insertPreparedStatement = null;
+        private PreparedStatement insertDayPreparedStatement = null;
+        private PreparedStatement updateTitlePreparedStatement = null;
+        private PreparedStatement deletePreparedStatement = null;
+
+        @Override
+        public CompletionStage<List<BoundStatement>> statements(BlogEvent event, Offset offset) {
+            if (event instanceof BlogEvent.PostAdded) {
+                return processPostAdded((BlogEvent.PostAdded) event);
+            } else if (event instanceof BlogEvent.PostUpdated) {
+                return processPostUpdated((BlogEvent.PostUpdated) event);
+            } else if (event instanceof BlogEvent.PostEdited) {
+                return processPostEdited((BlogEvent.PostEdited) event);
+            } else if (event instanceof BlogEvent.PostDeleted) {
+                return processPostDeleted((BlogEvent.PostDeleted) event);
+            }
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        private CompletionStage<List<BoundStatement>> processPostAdded(BlogEvent.PostAdded event) {
+            int day = PostBuckets.dayOf(event.getTimestamp());
+            return CompletableFuture.completedFuture(Arrays.asList(
+                    insertPreparedStatement.bind(
+                            day,
+                            event.getTimestamp().toEpochMilli(),
+                            event.getContent().getAuthor(),
+                            event.getId(),
+                            event.getContent().getTitle()
+                    ),
+                    insertDayPreparedStatement.bind(PostBuckets.TIMELINE_BUCKET, day)
+            ));
+        }
+
+        private CompletionStage<List<BoundStatement>> processPostUpdated(BlogEvent.PostUpdated event) {
+            return completedStatement(
+                    updateTitlePreparedStatement.bind(
+                            event.getContent().getTitle(),
+                            PostBuckets.dayOf(event.getTimestamp()),
+                            event.getTimestamp().toEpochMilli(),
+                            event.getContent().getAuthor()
+                    )
+            );
+        }
+
+        private CompletionStage<List<BoundStatement>> processPostEdited(BlogEvent.PostEdited event) {
+            if (!event.getTitle().isPresent()) {
+                return CompletableFuture.completedFuture(Collections.emptyList());
+            }
+            return completedStatement(
+                    updateTitlePreparedStatement.bind(
+                            event.getTitle().get(),
+                            PostBuckets.dayOf(event.getTimestamp()),
+                            event.getTimestamp().toEpochMilli(),
+                            event.getAuthor()
+                    )
+            );
+        }
+
+        private CompletionStage<List<BoundStatement>> processPostDeleted(BlogEvent.PostDeleted event) {
+            return completedStatement(
+                    deletePreparedStatement.bind(
+                            PostBuckets.dayOf(event.getTimestamp()),
+                            event.getTimestamp().toEpochMilli(),
+                            event.getAuthor()
+                    )
+            );
+        }
+    }
+}
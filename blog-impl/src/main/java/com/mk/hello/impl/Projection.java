@@ -0,0 +1,35 @@
+package com.mk.hello.impl;
+
+import akka.Done;
+import com.datastax.driver.core.BoundStatement;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A projection the queries read, whose tables come in generations (see {@link ReadTables}). Its
+ * processor writes the current generation and a rebuild the next one, both with the statements
+ * of a {@link Writer}.
+ */
+interface Projection {
+
+  String offsetId();
+
+  CompletionStage<Done> createTables(ReadTables.Generation generation);
+
+  /**
+   * A writer of the events of the given tag into the tables of the given generation.
+   */
+  CompletionStage<Writer> writer(ReadTables.Generation generation, AggregateEventTag<BlogEvent> tag);
+
+  /**
+   * Turns the events of one tag into statements, one event at a time: the statements of an event
+   * are executed before the next event is handed to the writer.
+   */
+  interface Writer {
+
+    CompletionStage<List<BoundStatement>> statements(BlogEvent event, Offset offset);
+  }
+}
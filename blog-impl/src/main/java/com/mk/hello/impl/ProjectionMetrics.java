@@ -0,0 +1,239 @@
+package com.mk.hello.impl;
+
+import akka.Done;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import akka.persistence.cassandra.query.javadsl.CassandraReadJournal;
+import akka.persistence.query.PersistenceQuery;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import com.datastax.driver.core.utils.UUIDs;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor.ReadSideHandler;
+import com.mk.hello.api.ProjectionStats;
+import com.mk.tags.OffsetAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Node local metrics of the blog read-side processors, per processor and shard tag, for the
+ * processors running on this node.
+ * <p>
+ * The lag is measured against the journal when the stats are asked for, by reading the events
+ * of the tag after the last processed offset, up to {@link #MAX_LAG_EVENTS} of them.
+ */
+@Singleton
+public class ProjectionMetrics {
+
+  // recent writes per processor and tag kept for the rate and the latency percentiles
+  private static final int RECENT_WRITES = 1024;
+  // events read from the journal per processor and tag to measure the lag
+  static final int MAX_LAG_EVENTS = 10000;
+  private static final long RATE_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+  private final CassandraReadJournal journal;
+  private final Materializer materializer;
+
+  @Inject
+  public ProjectionMetrics(ActorSystem system, Materializer materializer) {
+    this.journal = PersistenceQuery.get(system)
+            .getReadJournalFor(CassandraReadJournal.class, CassandraReadJournal.Identifier());
+    this.materializer = materializer;
+  }
+
+  /**
+   * Recorder of the given processor on the given tag.
+   */
+  Recorder recorder(String processor, String tag) {
+    return recorders.computeIfAbsent(processor + "/" + tag, ignored -> new Recorder(processor, tag));
+  }
+
+  /**
+   * Makes a read-side handler record every written event. The handler has to emit one element
+   * per event, in order, after the event is written.
+   */
+  ReadSideHandler<BlogEvent> instrumented(String processor, ReadSideHandler<BlogEvent> handler) {
+    return new ReadSideHandler<BlogEvent>() {
+
+      private Recorder recorder = null; // initialized in prepare
+
+      @Override
+      public CompletionStage<Done> globalPrepare() {
+        return handler.globalPrepare();
+      }
+
+      @Override
+      public CompletionStage<Offset> prepare(AggregateEventTag<BlogEvent> tag) {
+        recorder = recorder(processor, tag.tag());
+        return handler.prepare(tag).thenApply(offset -> {
+          recorder.started(offset);
+          return offset;
+        });
+      }
+
+      @Override
+      public Flow<Pair<BlogEvent, Offset>, Done, ?> handle() {
+        // offsets and start times of the events sent to the handler and not yet written
+        Queue<Pair<Offset, Long>> pending = new ConcurrentLinkedQueue<>();
+        return Flow.<Pair<BlogEvent, Offset>>create()
+                .map(eventAndOffset -> {
+                  pending.add(Pair.create(eventAndOffset.second(), System.nanoTime()));
+                  return eventAndOffset;
+                })
+                .via(handler.handle())
+                .map(done -> {
+                  Pair<Offset, Long> written = pending.remove();
+                  recorder.written(1, written.first(), System.nanoTime() - written.second());
+                  return done;
+                });
+      }
+    };
+  }
+
+  public CompletionStage<List<ProjectionStats>> stats() {
+    List<CompletableFuture<ProjectionStats>> stats = new ArrayList<>();
+    for (Recorder recorder : recorders.values()) {
+      stats.add(stats(recorder).toCompletableFuture());
+    }
+    return CompletableFuture.allOf(stats.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+      List<ProjectionStats> all = new ArrayList<>();
+      stats.forEach(recorderStats -> all.add(recorderStats.join()));
+      return all;
+    });
+  }
+
+  /**
+   * Stats of the recorder, with the number and the time of the newest of the events of its tag
+   * after its last offset.
+   */
+  private CompletionStage<ProjectionStats> stats(Recorder recorder) {
+    Offset from = recorder.lastOffset();
+    AggregateEventTag<BlogEvent> tag = BlogEventTag.TAGS.allTags().stream()
+            .filter(t -> t.tag().equals(recorder.tag))
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("Unknown tag " + recorder.tag));
+    return journal.currentEventsByTag(tag.tag(), OffsetAdapter.toAkka(from))
+            .map(envelope -> OffsetAdapter.toLagom(envelope.offset()))
+            // the query may start with the event at the offset itself
+            .filter(offset -> !offset.equals(from) && BlogEventTag.TAGS.accepts(tag, offset))
+            .take(MAX_LAG_EVENTS)
+            .runWith(Sink.fold(Pair.create(0L, 0L), (lag, offset) -> Pair.create(lag.first() + 1, Recorder.millis(offset))),
+                    materializer)
+            .thenApply(lag -> recorder.stats(lag.first(), lag.second()));
+  }
+
+  /**
+   * Progress of one processor on one tag.
+   */
+  static final class Recorder {
+
+    private final String processor;
+    private final String tag;
+
+    private Offset lastOffset = Offset.NONE;
+    private long lastOffsetMillis;
+    private long events;
+    // ring buffers of the completion times, event counts and latencies of the most recent writes
+    private final long[] writtenAt = new long[RECENT_WRITES];
+    private final int[] counts = new int[RECENT_WRITES];
+    private final long[] latencies = new long[RECENT_WRITES];
+    private int writes;
+
+    private Recorder(String processor, String tag) {
+      this.processor = processor;
+      this.tag = tag;
+    }
+
+    synchronized Offset lastOffset() {
+      return lastOffset;
+    }
+
+    synchronized void started(Offset offset) {
+      lastOffset = offset;
+      lastOffsetMillis = millis(offset);
+    }
+
+    /**
+     * Records a write of the given number of events, up to the given offset.
+     */
+    synchronized void written(int count, Offset offset, long latencyNanos) {
+      lastOffset = offset;
+      lastOffsetMillis = millis(offset);
+      events += count;
+      writtenAt[writes % RECENT_WRITES] = System.nanoTime();
+      counts[writes % RECENT_WRITES] = count;
+      latencies[writes % RECENT_WRITES] = latencyNanos;
+      writes++;
+    }
+
+    /**
+     * The stats with the given number of events after the last offset and the time of the newest
+     * of them.
+     */
+    private synchronized ProjectionStats stats(long lagEvents, long newestMillis) {
+      long now = System.nanoTime();
+      int recent = Math.min(writes, RECENT_WRITES);
+
+      long[] sorted = Arrays.copyOf(latencies, recent);
+      Arrays.sort(sorted);
+
+      // events of the writes of the last minute, over the time they span if the ring is full of them
+      int inWindow = 0;
+      long windowEvents = 0;
+      long oldest = now;
+      for (int i = 0; i < recent; i++) {
+        if (now - writtenAt[i] <= RATE_WINDOW_NANOS) {
+          inWindow++;
+          windowEvents += counts[i];
+          oldest = Math.min(oldest, writtenAt[i]);
+        }
+      }
+      long span = inWindow == RECENT_WRITES ? Math.max(now - oldest, 1) : RATE_WINDOW_NANOS;
+      double rate = windowEvents * (double) TimeUnit.SECONDS.toNanos(1) / span;
+
+      long lagMillis = lagEvents == 0 ? 0 : Math.max(newestMillis - lastOffsetMillis, 0);
+
+      return new ProjectionStats(processor, tag,
+              offsetString(lastOffset),
+              events, lagEvents, lagMillis, rate,
+              percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+      if (sorted.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(percentile * sorted.length) - 1;
+      return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(index, 0)]);
+    }
+
+    private static Optional<String> offsetString(Offset offset) {
+      if (offset instanceof Offset.TimeBasedUUID) {
+        return Optional.of(((Offset.TimeBasedUUID) offset).value().toString());
+      } else if (offset instanceof Offset.Sequence) {
+        return Optional.of(String.valueOf(((Offset.Sequence) offset).value()));
+      }
+      return Optional.empty();
+    }
+
+    private static long millis(Offset offset) {
+      return offset instanceof Offset.TimeBasedUUID ? UUIDs.unixTimestamp(((Offset.TimeBasedUUID) offset).value()) : 0;
+    }
+  }
+}
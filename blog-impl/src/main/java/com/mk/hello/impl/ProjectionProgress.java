@@ -0,0 +1,251 @@
+package com.mk.hello.impl;
+
+import akka.Done;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.RestartSource;
+import akka.stream.javadsl.Sink;
+import com.datastax.driver.core.utils.UUIDs;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.lightbend.lagom.javadsl.api.transport.BadRequest;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor.ReadSideHandler;
+import com.lightbend.lagom.javadsl.pubsub.PubSubRegistry;
+import com.lightbend.lagom.javadsl.pubsub.TopicId;
+import com.lightbend.lagom.serialization.Jsonable;
+import com.typesafe.config.Config;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.Value;
+import org.pcollections.HashTreePMap;
+import org.pcollections.PMap;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Read-your-writes for the queries served from the blog projections.
+ * <p>
+ * A write returns a consistency token made of the post id and the time the write started. The
+ * projections publish the posts they have written through a pub-sub topic, one message per
+ * blog.consistency.publish-interval with the latest event of each post, and every node keeps
+ * the time of the last processed event of the most recently processed posts. A query sent with a
+ * token waits, up to blog.consistency.wait-timeout, until the projection it reads has processed an
+ * event of the post at or after the time of the token, and is served as it is after the timeout.
+ * <p>
+ * The times of the tokens and of the offsets come from the clocks of different nodes, they are
+ * expected to be synchronized well within the duration of a write.
+ */
+@Singleton
+public class ProjectionProgress {
+
+  static final String POST_SUMMARY = "post-summary";
+  static final String POST_TIMELINE = "post-timeline";
+  static final String POST_SEARCH = "post-search";
+  static final String AUTHOR_COUNT = "author-count";
+
+  private static final String TOKEN_SEPARATOR = ":";
+  // most events of a projection published in one message
+  private static final int PUBLISH_BATCH = 1000;
+
+  private final PubSubRegistry pubSub;
+  private final ActorSystem system;
+  private final int recentPosts;
+  private final FiniteDuration waitTimeout;
+  private final FiniteDuration publishInterval;
+
+  // per projection, offset time of the last processed event of a post, least recently processed first
+  private final Map<String, LinkedHashMap<String, Long>> processed = new HashMap<>();
+  // per projection and post id, the queries waiting for it
+  private final Map<String, List<Waiter>> waiters = new HashMap<>();
+
+  @Inject
+  public ProjectionProgress(PubSubRegistry pubSub, ActorSystem system, Materializer materializer, Config config) {
+    this.pubSub = pubSub;
+    this.system = system;
+    this.recentPosts = config.getInt("blog.consistency.recent-posts");
+    this.waitTimeout = FiniteDuration.create(
+            config.getDuration("blog.consistency.wait-timeout", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+    this.publishInterval = FiniteDuration.create(
+            config.getDuration("blog.consistency.publish-interval", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+
+    for (String projection : Arrays.asList(POST_SUMMARY, POST_TIMELINE, POST_SEARCH, AUTHOR_COUNT)) {
+      processed.put(projection, new LinkedHashMap<>(16, 0.75f, true));
+      RestartSource.withBackoff(
+              FiniteDuration.create(1, TimeUnit.SECONDS),
+              FiniteDuration.create(30, TimeUnit.SECONDS),
+              0.2,
+              () -> pubSub.refFor(topic(projection)).subscriber())
+              .runWith(Sink.foreach(this::processed), materializer);
+    }
+  }
+
+  /**
+   * Token of a write of the given post that started at the given time.
+   */
+  static String token(String postId, long startedAt) {
+    return postId + TOKEN_SEPARATOR + startedAt;
+  }
+
+  /**
+   * Completes once the projection has processed the write of the token, or after the wait timeout.
+   */
+  public CompletionStage<Done> await(String projection, String token) {
+    int separator = token.lastIndexOf(TOKEN_SEPARATOR);
+    String postId;
+    long since;
+    try {
+      postId = token.substring(0, separator);
+      since = Long.parseLong(token.substring(separator + 1));
+    } catch (RuntimeException e) {
+      throw new BadRequest("Invalid consistency token");
+    }
+
+    Waiter waiter;
+    synchronized (this) {
+      Long at = processed.get(projection).get(postId);
+      if (at != null && at >= since) {
+        return CompletableFuture.completedFuture(Done.getInstance());
+      }
+      waiter = new Waiter(since);
+      waiters.computeIfAbsent(projection + "/" + postId, ignored -> new ArrayList<>()).add(waiter);
+    }
+    system.scheduler().scheduleOnce(waitTimeout, () -> {
+      synchronized (this) {
+        List<Waiter> pending = waiters.get(projection + "/" + postId);
+        if (pending != null && pending.remove(waiter) && pending.isEmpty()) {
+          waiters.remove(projection + "/" + postId);
+        }
+      }
+      waiter.result.complete(Done.getInstance());
+    }, system.dispatcher());
+    return waiter.result;
+  }
+
+  /**
+   * Makes a read-side handler of the projection publish the posts it has written, batched over
+   * blog.consistency.publish-interval. The handler has to emit one element per event, in order,
+   * after the event is written.
+   */
+  ReadSideHandler<BlogEvent> publishing(String projection, ReadSideHandler<BlogEvent> handler) {
+    return new ReadSideHandler<BlogEvent>() {
+
+      @Override
+      public CompletionStage<Done> globalPrepare() {
+        return handler.globalPrepare();
+      }
+
+      @Override
+      public CompletionStage<Offset> prepare(AggregateEventTag<BlogEvent> tag) {
+        return handler.prepare(tag);
+      }
+
+      @Override
+      public Flow<Pair<BlogEvent, Offset>, Done, ?> handle() {
+        // events sent to the handler and not yet written
+        Queue<Pair<BlogEvent, Offset>> pending = new ConcurrentLinkedQueue<>();
+        return Flow.<Pair<BlogEvent, Offset>>create()
+                .map(eventAndOffset -> {
+                  pending.add(eventAndOffset);
+                  return eventAndOffset;
+                })
+                .via(handler.handle())
+                .map(done -> pending.remove())
+                .alsoTo(Flow.<Pair<BlogEvent, Offset>>create()
+                        .groupedWithin(PUBLISH_BATCH, publishInterval)
+                        .to(Sink.foreach(written -> publish(projection, written))))
+                .map(written -> Done.getInstance());
+      }
+    };
+  }
+
+  /**
+   * Publishes the latest offset time of every post among the written events, in one message.
+   */
+  private void publish(String projection, List<Pair<BlogEvent, Offset>> written) {
+    Map<String, Long> posts = new HashMap<>();
+    for (Pair<BlogEvent, Offset> eventAndOffset : written) {
+      if (eventAndOffset.first().getId() != null && eventAndOffset.second() instanceof Offset.TimeBasedUUID) {
+        long at = UUIDs.unixTimestamp(((Offset.TimeBasedUUID) eventAndOffset.second()).value());
+        posts.merge(eventAndOffset.first().getId(), at, Math::max);
+      }
+    }
+    if (!posts.isEmpty()) {
+      pubSub.refFor(topic(projection)).publish(new PostsProcessed(projection, HashTreePMap.from(posts)));
+    }
+  }
+
+  private synchronized void processed(PostsProcessed message) {
+    LinkedHashMap<String, Long> posts = processed.get(message.getProjection());
+    message.getPosts().forEach((postId, at) -> {
+      posts.merge(postId, at, Math::max);
+      if (posts.size() > recentPosts) {
+        posts.remove(posts.keySet().iterator().next());
+      }
+
+      String key = message.getProjection() + "/" + postId;
+      List<Waiter> pending = waiters.get(key);
+      if (pending == null) {
+        return;
+      }
+      pending.removeIf(waiter -> {
+        if (at >= waiter.since) {
+          waiter.result.complete(Done.getInstance());
+          return true;
+        }
+        return false;
+      });
+      if (pending.isEmpty()) {
+        waiters.remove(key);
+      }
+    });
+  }
+
+  private static TopicId<PostsProcessed> topic(String projection) {
+    return TopicId.of(PostsProcessed.class, projection);
+  }
+
+  private static final class Waiter {
+    final long since;
+    final CompletableFuture<Done> result = new CompletableFuture<>();
+
+    Waiter(long since) {
+      this.since = since;
+    }
+  }
+
+  /**
+   * Published by a projection after it has written events of the posts.
+   */
+  @Immutable
+  @JsonDeserialize
+  @Value
+  @AllArgsConstructor(onConstructor = @__(@JsonCreator))
+  public static final class PostsProcessed implements Jsonable {
+    @NonNull
+    String projection;
+    /**
+     * Per post id, time of the offset of its latest written event, in milliseconds.
+     */
+    @NonNull
+    PMap<String, Long> posts;
+  }
+}
@@ -0,0 +1,114 @@
+package com.mk.hello.impl;
+
+import akka.Done;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.datastax.driver.core.utils.UUIDs;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.typesafe.config.Config;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Tells whether a read-side processor has caught up with the journal. A new processor starts
+ * with empty tables and replays the whole journal, the queries keep reading the tables it
+ * replaces until it has caught up.
+ * <p>
+ * A processor has caught up once, on every shard tag, the first event after its stored offset
+ * is younger than blog.read-side.catch-up.max-lag, or there is none. This is checked at most
+ * every blog.read-side.catch-up.check-interval, and once it holds it is recorded in
+ * projection_ready, where the other nodes find it. A rebuild does not change it: the queries
+ * keep reading the current tables until the rebuilt ones have caught up (see {@link ReadTables}).
+ */
+@Singleton
+public class ProjectionReadiness {
+
+  private final CassandraSession session;
+  private final BlogEventFeed feed;
+  private final Materializer materializer;
+  private final long maxLagMillis;
+  private final long checkIntervalNanos;
+
+  // the latest check of every processor
+  private final Map<String, Check> checks = new ConcurrentHashMap<>();
+
+  // Will complete when projection_ready has been successfully created
+  private volatile CompletableFuture<Done> table;
+
+  @Inject
+  public ProjectionReadiness(CassandraSession session, BlogEventFeed feed, Materializer materializer, Config config) {
+    this.session = session;
+    this.feed = feed;
+    this.materializer = materializer;
+    this.maxLagMillis = config.getDuration("blog.read-side.catch-up.max-lag", TimeUnit.MILLISECONDS);
+    this.checkIntervalNanos = config.getDuration("blog.read-side.catch-up.check-interval", TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Whether the processor with the given offset id has caught up with the journal.
+   */
+  public CompletionStage<Boolean> hasCaughtUp(String offsetId) {
+    long now = System.nanoTime();
+    return checks.compute(offsetId, (id, previous) ->
+            previous == null || previous.result.isCompletedExceptionally() || now - previous.startedAt > checkIntervalNanos
+                    ? new Check(now, check(id))
+                    : previous).result;
+  }
+
+  private CompletableFuture<Boolean> check(String offsetId) {
+    return table()
+            .thenCompose(done -> session.selectOne("SELECT offset_id FROM projection_ready WHERE offset_id = ?", offsetId))
+            .thenCompose(recorded -> recorded.isPresent()
+                    ? CompletableFuture.completedFuture(true)
+                    : checkJournal(offsetId).thenCompose(ready -> ready
+                            ? session.executeWrite("INSERT INTO projection_ready (offset_id) VALUES (?)", offsetId)
+                                    .thenApply(done -> true)
+                            : CompletableFuture.completedFuture(false)))
+            .toCompletableFuture();
+  }
+
+  private CompletionStage<Boolean> checkJournal(String offsetId) {
+    long oldestPending = System.currentTimeMillis() - maxLagMillis;
+    return feed.processedOffsets(offsetId).thenCompose(offsets -> Source.from(BlogEventTag.TAGS.allTags())
+            .mapAsync(4, tag -> feed.firstAfter(tag, offsets.getOrDefault(tag.tag(), Offset.NONE))
+                    .thenApply(first -> first
+                            .map(offset -> timeOf(offset) >= oldestPending)
+                            .orElse(true)))
+            .runWith(Sink.fold(true, (all, tagCaughtUp) -> all && tagCaughtUp), materializer));
+  }
+
+  private static long timeOf(Offset offset) {
+    if (offset instanceof Offset.TimeBasedUUID) {
+      return UUIDs.unixTimestamp(((Offset.TimeBasedUUID) offset).value());
+    }
+    throw new IllegalArgumentException("No time for offset " + offset);
+  }
+
+  private synchronized CompletionStage<Done> table() {
+    if (table == null || table.isCompletedExceptionally()) {
+      table = session.executeCreateTable(
+              "CREATE TABLE IF NOT EXISTS projection_ready (offset_id text, PRIMARY KEY (offset_id))")
+              .toCompletableFuture();
+    }
+    return table;
+  }
+
+  private static final class Check {
+    final long startedAt;
+    final CompletableFuture<Boolean> result;
+
+    Check(long startedAt, CompletableFuture<Boolean> result) {
+      this.startedAt = startedAt;
+      this.result = result;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package com.mk.hello.impl;
+
+import akka.Done;
+import akka.japi.Pair;
+import akka.stream.javadsl.Flow;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor.ReadSideHandler;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.typesafe.config.Config;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Lets {@link BlogReadSideRebuild} hold a processor back while it switches the projection of the
+ * processor to the tables it rebuilt.
+ * <p>
+ * Every pausable processor has a row in read_side_pauses. A pause counts up and flags the
+ * processor as paused, the handlers notice within blog.rebuild.pointer-refresh and fail, and
+ * their restarts wait until the pause is over. Meanwhile the rebuild moves the offsets of the
+ * processor to those of the rebuilt tables, so the restarted handlers go on from there.
+ */
+@Singleton
+public class ReadSidePauses {
+
+  private final CassandraSession session;
+  private final long refreshNanos;
+
+  // Will complete when read_side_pauses has been successfully created
+  private volatile CompletableFuture<Done> table;
+
+  @Inject
+  public ReadSidePauses(CassandraSession session, Config config) {
+    this.session = session;
+    this.refreshNanos = config.getDuration("blog.rebuild.pointer-refresh", TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Makes the handler of the processor with the given offset id stop when a pause starts, and
+   * wait for its end before it starts again.
+   */
+  ReadSideHandler<BlogEvent> pausable(String offsetId, ReadSideHandler<BlogEvent> handler) {
+    return new ReadSideHandler<BlogEvent>() {
+
+      private long pauses; // initialized in prepare
+      private long checkedAt;
+
+      @Override
+      public CompletionStage<Done> globalPrepare() {
+        return table().thenCompose(done -> handler.globalPrepare());
+      }
+
+      @Override
+      public CompletionStage<Offset> prepare(AggregateEventTag<BlogEvent> tag) {
+        return pauses(offsetId).thenCompose(current -> {
+          if (current.second()) {
+            // fails the start, the read side retries it with a backoff
+            throw new IllegalStateException(offsetId + " is paused");
+          }
+          pauses = current.first();
+          checkedAt = System.nanoTime();
+          return handler.prepare(tag);
+        });
+      }
+
+      @Override
+      public Flow<Pair<BlogEvent, Offset>, Done, ?> handle() {
+        return Flow.<Pair<BlogEvent, Offset>>create()
+                .mapAsync(1, eventAndOffset -> {
+                  if (System.nanoTime() - checkedAt < refreshNanos) {
+                    return CompletableFuture.completedFuture(eventAndOffset);
+                  }
+                  return pauses(offsetId).thenApply(current -> {
+                    if (current.first() != pauses || current.second()) {
+                      throw new IllegalStateException(offsetId + " is paused");
+                    }
+                    checkedAt = System.nanoTime();
+                    return eventAndOffset;
+                  });
+                })
+                .via(handler.handle());
+      }
+    };
+  }
+
+  /**
+   * Stops the handlers of the processor, they notice within blog.rebuild.pointer-refresh.
+   */
+  CompletionStage<Done> pause(String offsetId) {
+    return pauses(offsetId).thenCompose(current ->
+            session.executeWrite("INSERT INTO read_side_pauses (offset_id, pauses, paused) VALUES (?, ?, ?)",
+                    offsetId, current.first() + 1, true));
+  }
+
+  /**
+   * Lets the handlers of the processor start again, from the offsets stored meanwhile.
+   */
+  CompletionStage<Done> resume(String offsetId) {
+    return pauses(offsetId).thenCompose(current ->
+            session.executeWrite("INSERT INTO read_side_pauses (offset_id, pauses, paused) VALUES (?, ?, ?)",
+                    offsetId, current.first(), false));
+  }
+
+  /**
+   * The number of pauses of the processor so far and whether it is paused.
+   */
+  private CompletionStage<Pair<Long, Boolean>> pauses(String offsetId) {
+    return table()
+            .thenCompose(done -> session.selectOne(
+                    "SELECT pauses, paused FROM read_side_pauses WHERE offset_id = ?", offsetId))
+            .thenApply(row -> row
+                    .map(r -> Pair.create(r.getLong("pauses"), r.getBool("paused")))
+                    .orElse(Pair.create(0L, false)));
+  }
+
+  private synchronized CompletionStage<Done> table() {
+    if (table == null || table.isCompletedExceptionally()) {
+      table = session.executeCreateTable(
+              "CREATE TABLE IF NOT EXISTS read_side_pauses ("
+                      + "offset_id text, pauses bigint, paused boolean, PRIMARY KEY (offset_id))")
+              .toCompletableFuture();
+    }
+    return table;
+  }
+}
@@ -0,0 +1,115 @@
+package com.mk.hello.impl;
+
+import akka.Done;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.typesafe.config.Config;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * The generation of the tables of every projection the queries read, in read_side_tables. A
+ * rebuild writes the next generation of the tables of a projection beside the current one and
+ * switches the projection over once that generation has caught up (see
+ * {@link BlogReadSideRebuild}). Generation 0 are the tables under their original names.
+ * <p>
+ * The queries look the generation up at most every blog.rebuild.pointer-refresh, the processors
+ * every time they start.
+ */
+@Singleton
+public class ReadTables {
+
+  private final CassandraSession session;
+  private final long refreshNanos;
+
+  // the latest lookup of every projection
+  private final Map<String, Lookup> lookups = new ConcurrentHashMap<>();
+
+  // Will complete when read_side_tables has been successfully created
+  private volatile CompletableFuture<Done> table;
+
+  @Inject
+  public ReadTables(CassandraSession session, Config config) {
+    this.session = session;
+    this.refreshNanos = config.getDuration("blog.rebuild.pointer-refresh", TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * The generation the queries read of the projection with the given offset id, as of at most
+   * blog.rebuild.pointer-refresh ago.
+   */
+  public CompletionStage<Generation> current(String offsetId) {
+    long now = System.nanoTime();
+    return lookups.compute(offsetId, (id, previous) ->
+            previous == null || previous.result.isCompletedExceptionally() || now - previous.startedAt > refreshNanos
+                    ? new Lookup(now, load(id).toCompletableFuture())
+                    : previous).result;
+  }
+
+  /**
+   * The generation of the projection as stored right now.
+   */
+  CompletionStage<Generation> load(String offsetId) {
+    return table()
+            .thenCompose(done -> session.selectOne("SELECT generation FROM read_side_tables WHERE offset_id = ?", offsetId))
+            .thenApply(row -> row.map(r -> new Generation(r.getInt("generation"))).orElse(Generation.FIRST));
+  }
+
+  /**
+   * Makes the queries and the processor of the projection use the given generation, the nodes
+   * follow within blog.rebuild.pointer-refresh.
+   */
+  CompletionStage<Done> switchTo(String offsetId, Generation generation) {
+    return table().thenCompose(done -> session.executeWrite(
+            "INSERT INTO read_side_tables (offset_id, generation) VALUES (?, ?)", offsetId, generation.number));
+  }
+
+  private synchronized CompletionStage<Done> table() {
+    if (table == null || table.isCompletedExceptionally()) {
+      table = session.executeCreateTable(
+              "CREATE TABLE IF NOT EXISTS read_side_tables (offset_id text, generation int, PRIMARY KEY (offset_id))")
+              .toCompletableFuture();
+    }
+    return table;
+  }
+
+  /**
+   * A generation of the tables of a projection.
+   */
+  static final class Generation {
+    static final Generation FIRST = new Generation(0);
+
+    final int number;
+
+    Generation(int number) {
+      this.number = number;
+    }
+
+    Generation next() {
+      return new Generation(number + 1);
+    }
+
+    /**
+     * Name of the given table in this generation.
+     */
+    String table(String name) {
+      return number == 0 ? name : name + "_g" + number;
+    }
+  }
+
+  private static final class Lookup {
+    final long startedAt;
+    final CompletableFuture<Generation> result;
+
+    Lookup(long startedAt, CompletableFuture<Generation> result) {
+      this.startedAt = startedAt;
+      this.result = result;
+    }
+  }
+}
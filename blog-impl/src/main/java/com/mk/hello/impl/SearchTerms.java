@@ -0,0 +1,87 @@
+package com.mk.hello.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits post titles, bodies and search queries into the terms of the search index: lower case
+ * runs of letters and digits, without the most common English words.
+ */
+final class SearchTerms {
+
+  // a term in the title counts as much as this many in the body
+  static final int TITLE_WEIGHT = 3;
+
+  private static final int MIN_LENGTH = 2;
+  private static final int MAX_LENGTH = 64;
+
+  private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+          "an", "and", "are", "as", "at", "be", "by", "for", "from", "in", "is", "it", "of", "on",
+          "or", "that", "the", "this", "to", "was", "with"));
+
+  private SearchTerms() {
+  }
+
+  /**
+   * Terms of a post with their scores, the weighted number of occurrences. Only the maxTerms
+   * highest scoring terms are kept, to bound the index writes of a single post.
+   */
+  static Map<String, Integer> ofPost(String title, String body, int maxTerms) {
+    Map<String, Integer> scores = new HashMap<>();
+    for (String term : tokenize(title)) {
+      scores.merge(term, TITLE_WEIGHT, Integer::sum);
+    }
+    for (String term : tokenize(body)) {
+      scores.merge(term, 1, Integer::sum);
+    }
+    if (scores.size() <= maxTerms) {
+      return scores;
+    }
+    List<Map.Entry<String, Integer>> entries = new ArrayList<>(scores.entrySet());
+    entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+    Map<String, Integer> kept = new HashMap<>();
+    for (Map.Entry<String, Integer> entry : entries.subList(0, maxTerms)) {
+      kept.put(entry.getKey(), entry.getValue());
+    }
+    return kept;
+  }
+
+  /**
+   * Distinct terms of a query, in the order they appear.
+   */
+  static Set<String> ofQuery(String query) {
+    return new LinkedHashSet<>(tokenize(query));
+  }
+
+  private static List<String> tokenize(String text) {
+    List<String> terms = new ArrayList<>();
+    if (text == null) {
+      return terms;
+    }
+    String lower = text.toLowerCase(Locale.ROOT);
+    int start = -1;
+    for (int i = 0; i <= lower.length(); ) {
+      int codePoint = i < lower.length() ? lower.codePointAt(i) : -1;
+      if (codePoint != -1 && Character.isLetterOrDigit(codePoint)) {
+        if (start == -1) {
+          start = i;
+        }
+      } else if (start != -1) {
+        String term = lower.substring(start, i);
+        if (term.length() >= MIN_LENGTH && term.length() <= MAX_LENGTH && !STOP_WORDS.contains(term)) {
+          terms.add(term);
+        }
+        start = -1;
+      }
+      i += codePoint == -1 ? 1 : Character.charCount(codePoint);
+    }
+    return terms;
+  }
+}
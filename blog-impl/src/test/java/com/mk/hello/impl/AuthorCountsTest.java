@@ -0,0 +1,106 @@
+package com.mk.hello.impl;
+
+import com.mk.hello.api.AuthorPostCount;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class AuthorCountsTest {
+
+  private static final Comparator<AuthorPostCount> RANKING =
+      Comparator.comparingLong(AuthorPostCount::getPosts).reversed().thenComparing(AuthorPostCount::getAuthor);
+
+  /**
+   * The top k as the threshold loop of AuthorCounts finds it, over the given counts per tag.
+   */
+  private static List<AuthorPostCount> top(int k, List<Map<String, Long>> tags) {
+    // author_rank_by_tag holds the positive counts only
+    List<List<AuthorPostCount>> rankings = new ArrayList<>();
+    for (Map<String, Long> tag : tags) {
+      rankings.add(tag.entrySet().stream()
+          .filter(count -> count.getValue() > 0)
+          .map(count -> new AuthorPostCount(count.getKey(), count.getValue()))
+          .sorted(RANKING)
+          .collect(Collectors.toList()));
+    }
+    Map<String, Long> counts = new HashMap<>();
+    for (int limit = k; ; limit *= 2) {
+      int cut = limit;
+      List<List<AuthorPostCount>> read = rankings.stream()
+          .map(ranking -> ranking.subList(0, Math.min(cut, ranking.size())))
+          .collect(Collectors.toList());
+      for (String author : AuthorCounts.unseen(read, counts)) {
+        counts.put(author, tags.stream().mapToLong(tag -> tag.getOrDefault(author, 0L)).sum());
+      }
+      Optional<List<AuthorPostCount>> top = AuthorCounts.topIfKnown(k, limit, read, counts);
+      if (top.isPresent()) {
+        return top.get();
+      }
+    }
+  }
+
+  private static List<AuthorPostCount> bruteForce(int k, List<Map<String, Long>> tags) {
+    Map<String, Long> counts = new HashMap<>();
+    tags.forEach(tag -> tag.forEach((author, posts) -> counts.merge(author, posts, Long::sum)));
+    return counts.entrySet().stream()
+        .filter(count -> count.getValue() > 0)
+        .map(count -> new AuthorPostCount(count.getKey(), count.getValue()))
+        .sorted(RANKING)
+        .limit(k)
+        .collect(Collectors.toList());
+  }
+
+  private static Map<String, Long> tag(Object... authorsAndPosts) {
+    Map<String, Long> tag = new HashMap<>();
+    for (int i = 0; i < authorsAndPosts.length; i += 2) {
+      tag.put((String) authorsAndPosts[i], ((Integer) authorsAndPosts[i + 1]).longValue());
+    }
+    return tag;
+  }
+
+  @Test
+  public void testNegativeRowsAreSummedButNotRanked() {
+    List<Map<String, Long>> tags = Arrays.asList(
+        tag("alice", 3, "carol", 1),
+        tag("alice", -1, "bob", 1, "carol", -1));
+    assertEquals(Arrays.asList(new AuthorPostCount("alice", 2), new AuthorPostCount("bob", 1)), top(3, tags));
+  }
+
+  @Test
+  public void testAnAuthorSpreadOverTagsIsFound() {
+    // dave leads in total without leading any tag
+    List<Map<String, Long>> tags = Arrays.asList(
+        tag("alice", 5, "dave", 4),
+        tag("bob", 5, "dave", 4),
+        tag("carol", 5, "dave", 4));
+    assertEquals(Arrays.asList(new AuthorPostCount("dave", 12)), top(1, tags));
+  }
+
+  @Test
+  public void testMatchesBruteForce() {
+    Random random = new Random(42);
+    for (int run = 0; run < 200; run++) {
+      List<Map<String, Long>> tags = new ArrayList<>();
+      for (int t = 0; t < 1 + random.nextInt(8); t++) {
+        Map<String, Long> tag = new HashMap<>();
+        for (int a = 0; a < random.nextInt(40); a++) {
+          // mostly positive, some deletes counted on another tag than their add
+          tag.put("author-" + random.nextInt(30), (long) (random.nextInt(20) - 3));
+        }
+        tags.add(tag);
+      }
+      int k = 1 + random.nextInt(10);
+      assertEquals(bruteForce(k, tags), top(k, tags));
+    }
+  }
+}
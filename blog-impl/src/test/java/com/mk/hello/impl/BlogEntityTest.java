@@ -0,0 +1,111 @@
+package com.mk.hello.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.lightbend.lagom.javadsl.testkit.PersistentEntityTestDriver;
+import com.lightbend.lagom.javadsl.testkit.PersistentEntityTestDriver.Outcome;
+
+import akka.actor.ActorSystem;
+import akka.testkit.JavaTestKit;
+import com.mk.hello.api.PostContent;
+import com.mk.hello.api.UpdateContent;
+import com.mk.hello.impl.BlogCommand.AddPost;
+import com.mk.hello.impl.BlogCommand.UpdatePost;
+
+public class BlogEntityTest {
+
+  static ActorSystem system;
+
+  @BeforeClass
+  public static void setup() {
+    system = ActorSystem.create("BlogEntityTest");
+  }
+
+  @AfterClass
+  public static void teardown() {
+    JavaTestKit.shutdownActorSystem(system);
+    system = null;
+  }
+
+  private PersistentEntityTestDriver<BlogCommand, BlogEvent, BlogState> driverWithPost(String id) {
+    PersistentEntityTestDriver<BlogCommand, BlogEvent, BlogState> driver = new PersistentEntityTestDriver<>(system,
+        new BlogEntity(), id);
+    driver.run(new AddPost(new PostContent("Title", "Body", "Alice")));
+    return driver;
+  }
+
+  @Test
+  public void testRetriedAddPostIsNotPersisted() {
+    PersistentEntityTestDriver<BlogCommand, BlogEvent, BlogState> driver = driverWithPost("post-1");
+
+    Outcome<BlogEvent, BlogState> outcome = driver.run(new AddPost(new PostContent("Title", "Body", "Alice")));
+    assertEquals(Collections.emptyList(), outcome.events());
+    assertEquals(new BlogCommand.Written("post-1", false), outcome.getReplies().get(0));
+    assertEquals(Collections.emptyList(), outcome.issues());
+  }
+
+  @Test
+  public void testRetriedAddPostAfterDeleteIsNotPersisted() {
+    PersistentEntityTestDriver<BlogCommand, BlogEvent, BlogState> driver = driverWithPost("post-5");
+    driver.run(BlogCommand.DeletePost.INSTANCE);
+
+    Outcome<BlogEvent, BlogState> outcome = driver.run(new AddPost(new PostContent("Title", "Body", "Alice")));
+    assertEquals(Collections.emptyList(), outcome.events());
+    assertEquals(new BlogCommand.Written("post-5", false), outcome.getReplies().get(0));
+    assertEquals(Optional.empty(), outcome.state().getContent());
+    assertEquals(Collections.emptyList(), outcome.issues());
+  }
+
+  @Test
+  public void testUnchangedUpdateIsNotPersisted() {
+    PersistentEntityTestDriver<BlogCommand, BlogEvent, BlogState> driver = driverWithPost("post-2");
+
+    Outcome<BlogEvent, BlogState> outcome = driver.run(new UpdatePost(new UpdateContent("Title", "Body"), Optional.empty()));
+    assertEquals(Collections.emptyList(), outcome.events());
+    assertEquals(new BlogCommand.Written("post-2", false), outcome.getReplies().get(0));
+    assertEquals(Collections.emptyList(), outcome.issues());
+  }
+
+  @Test
+  public void testRetriedUpdateIsNotPersisted() {
+    PersistentEntityTestDriver<BlogCommand, BlogEvent, BlogState> driver = driverWithPost("post-3");
+
+    Outcome<BlogEvent, BlogState> outcome1 = driver.run(new UpdatePost(new UpdateContent("New Title", "Body"), Optional.of("key-1")));
+    assertEquals(1, outcome1.events().size());
+    assertEquals(new BlogCommand.Written("post-3", true), outcome1.getReplies().get(0));
+    assertTrue(outcome1.state().getIdempotencyKeys().contains("key-1"));
+
+    // a retry, even after another update
+    Outcome<BlogEvent, BlogState> outcome2 = driver.run(
+        new UpdatePost(new UpdateContent("Other Title", "Body"), Optional.empty()),
+        new UpdatePost(new UpdateContent("New Title", "Body"), Optional.of("key-1")));
+    assertEquals(1, outcome2.events().size());
+    assertEquals("Other Title", outcome2.state().getContent().get().getTitle());
+    assertEquals(new BlogCommand.Written("post-3", false), outcome2.getReplies().get(1));
+    assertEquals(Collections.emptyList(), outcome2.issues());
+  }
+
+  @Test
+  public void testUpdatesAreDeltasBetweenCheckpoints() {
+    PersistentEntityTestDriver<BlogCommand, BlogEvent, BlogState> driver = driverWithPost("post-4");
+
+    Outcome<BlogEvent, BlogState> outcome = null;
+    for (int i = 1; i < BlogEntity.CHECKPOINT_INTERVAL; i++) {
+      outcome = driver.run(new UpdatePost(new UpdateContent("Title", "Body " + i), Optional.empty()));
+      assertTrue(outcome.events().get(0) instanceof BlogEvent.PostEdited);
+    }
+    assertEquals("Body " + (BlogEntity.CHECKPOINT_INTERVAL - 1), outcome.state().getContent().get().getBody());
+
+    outcome = driver.run(new UpdatePost(new UpdateContent("Title", "Body"), Optional.empty()));
+    assertTrue(outcome.events().get(0) instanceof BlogEvent.PostUpdated);
+    assertEquals(0, outcome.state().getEdits());
+  }
+}
@@ -0,0 +1,61 @@
+package com.mk.hello.impl;
+
+import com.mk.hello.api.PostContent;
+import com.mk.hello.api.UpdateContent;
+import org.junit.Test;
+import org.pcollections.TreePVector;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class BlogSerializerTest {
+
+  private final BlogSerializer serializer = new BlogSerializer();
+
+  private Object roundTrip(Object o) throws Exception {
+    return serializer.fromBinary(serializer.toBinary(o), serializer.manifest(o));
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    PostContent content = new PostContent("title", "body", "author");
+    Instant timestamp = Instant.parse("2018-06-01T10:15:30.123456789Z");
+
+    Object[] messages = {
+            new BlogEvent.PostAdded("id", timestamp, content),
+            new BlogEvent.PostUpdated("id", timestamp, content, Optional.of("key")),
+            new BlogEvent.PostUpdated(null, timestamp, content, Optional.empty()),
+            new BlogEvent.PostEdited("id", "author", timestamp, Optional.of("title"), Optional.of(new BodyPatch(1, 2, "patch")), Optional.of("key")),
+            new BlogEvent.PostEdited("id", "author", timestamp, Optional.empty(), Optional.empty(), Optional.empty()),
+            new BlogEvent.PostDeleted("id", "author", timestamp),
+            BlogCommand.GetPost.INSTANCE,
+            new BlogCommand.AddPost(content),
+            new BlogCommand.UpdatePost(new UpdateContent("title", "body"), Optional.of("key")),
+            BlogCommand.DeletePost.INSTANCE,
+            new BlogCommand.Written("id", true),
+            new BlogState(Optional.of(content), Optional.of(timestamp), 3, TreePVector.from(Arrays.asList("key-1", "key-2")), false),
+            BlogState.EMPTY,
+            BlogState.DELETED
+    };
+
+    for (Object message : messages) {
+      assertEquals(message, roundTrip(message));
+    }
+  }
+
+  @Test
+  public void testLargeBodyIsCompressed() throws Exception {
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      body.append("Ünïcödé body ").append(i).append('\n');
+    }
+    BlogEvent.PostAdded added = new BlogEvent.PostAdded("id", Instant.now(), new PostContent("title", body.toString(), "author"));
+
+    byte[] bytes = serializer.toBinary(added);
+    assertTrue(bytes.length < body.length());
+    assertEquals(added, serializer.fromBinary(bytes, serializer.manifest(added)));
+  }
+}
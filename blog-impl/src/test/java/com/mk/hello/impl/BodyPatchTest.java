@@ -0,0 +1,33 @@
+package com.mk.hello.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BodyPatchTest {
+
+  private static void assertPatches(String from, String to) {
+    BodyPatch patch = BodyPatch.between(from, to);
+    assertEquals(to, patch.applyTo(from));
+  }
+
+  @Test
+  public void testBetween() {
+    assertPatches("", "");
+    assertPatches("", "body");
+    assertPatches("body", "");
+    assertPatches("a typo in teh body", "a typo in the body");
+    assertPatches("aaaa", "aa");
+    assertPatches("aa", "aaaa");
+    assertPatches("😀", "😁");
+
+    BodyPatch patch = BodyPatch.between("a typo in teh body", "a typo in the body");
+    assertEquals(2, patch.getReplacement().length());
+  }
+
+  @Test
+  public void testSurrogatePairsAreNotSplit() {
+    BodyPatch patch = BodyPatch.between("x😀", "x😁");
+    assertEquals("😁", patch.getReplacement());
+  }
+}
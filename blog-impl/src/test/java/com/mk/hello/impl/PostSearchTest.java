@@ -0,0 +1,60 @@
+package com.mk.hello.impl;
+
+import com.lightbend.lagom.javadsl.api.transport.BadRequest;
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class PostSearchTest {
+
+  private static Map<String, Integer> postings(Object... idsAndScores) {
+    Map<String, Integer> postings = new HashMap<>();
+    for (int i = 0; i < idsAndScores.length; i += 2) {
+      postings.put((String) idsAndScores[i], (Integer) idsAndScores[i + 1]);
+    }
+    return postings;
+  }
+
+  private static List<String> ids(List<Map.Entry<String, Integer>> ranked) {
+    return ranked.stream().map(Map.Entry::getKey).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testMatchesHaveAllTerms() {
+    Map<String, Integer> matches = PostSearch.matches(Arrays.asList(
+            postings("a", 1, "b", 2, "c", 3),
+            postings("b", 5, "c", 1, "d", 7)));
+    assertEquals(postings("b", 7, "c", 4), matches);
+  }
+
+  @Test
+  public void testTopRanksByScoreThenId() {
+    Map<String, Integer> matches = postings("a", 1, "b", 5, "c", 5, "d", 3);
+    assertEquals(Arrays.asList("b", "c", "d"), ids(PostSearch.top(matches, Optional.empty(), 3)));
+    assertEquals(Arrays.asList("b", "c", "d", "a"), ids(PostSearch.top(matches, Optional.empty(), 10)));
+    assertEquals(Collections.emptyList(), PostSearch.top(postings(), Optional.empty(), 3));
+  }
+
+  @Test
+  public void testTopContinuesAfterTheToken() {
+    Map<String, Integer> matches = postings("a", 1, "b", 5, "c", 5, "d", 3);
+    List<Map.Entry<String, Integer>> first = PostSearch.top(matches, Optional.empty(), 2);
+    Map.Entry<String, Integer> after = PostSearch.parseToken(PostSearch.token(first.get(first.size() - 1)));
+    assertEquals(new AbstractMap.SimpleImmutableEntry<>("c", 5), after);
+    assertEquals(Arrays.asList("d", "a"), ids(PostSearch.top(matches, Optional.of(after), 2)));
+  }
+
+  @Test(expected = BadRequest.class)
+  public void testInvalidToken() {
+    PostSearch.parseToken("no separator");
+  }
+}
@@ -0,0 +1,51 @@
+package com.mk.hello.impl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SearchTermsTest {
+
+  @Test
+  public void testQueryTerms() {
+    assertEquals(new LinkedHashSet<>(Arrays.asList("lagom", "cassandra", "2018")),
+            SearchTerms.ofQuery("Lagom and the CASSANDRA, lagom 2018!"));
+    assertTrue(SearchTerms.ofQuery("a the of").isEmpty());
+    assertTrue(SearchTerms.ofQuery(null).isEmpty());
+  }
+
+  @Test
+  public void testUnicodeTerms() {
+    assertEquals(new LinkedHashSet<>(Arrays.asList("über", "café")), SearchTerms.ofQuery("Über-café 😀"));
+  }
+
+  @Test
+  public void testTermLengths() {
+    StringBuilder tooLong = new StringBuilder();
+    for (int i = 0; i < 65; i++) {
+      tooLong.append('x');
+    }
+    assertEquals(new LinkedHashSet<>(Arrays.asList("ok")), SearchTerms.ofQuery("x ok " + tooLong));
+  }
+
+  @Test
+  public void testTitleTermsWeighMore() {
+    Map<String, Integer> expected = new HashMap<>();
+    expected.put("lagom", SearchTerms.TITLE_WEIGHT + 2);
+    expected.put("events", 1);
+    assertEquals(expected, SearchTerms.ofPost("Lagom", "lagom events, lagom", 200));
+  }
+
+  @Test
+  public void testHighestScoringTermsAreKept() {
+    Map<String, Integer> expected = new HashMap<>();
+    expected.put("title", SearchTerms.TITLE_WEIGHT);
+    expected.put("common", 2);
+    assertEquals(expected, SearchTerms.ofPost("title", "common rare common", 2));
+  }
+}
@@ -30,6 +30,15 @@ public interface CrudService extends Service {
    */
   ServiceCall<NotUsed, Optional<PostContent>> getPost(String id);
 
+  /**
+   * Gets the crud posts for the given IDs in one call, in the order of the IDs. IDs without a
+   * post come back without content. Example:
+   * curl -H 'content-type: application/json' -X POST
+   * -d '["12345678-1234-1234-1234-1234567890ab", "12345678-1234-1234-1234-1234567890ac"]'
+   * http://localhost:9000/api/crud/lookup/posts
+   */
+  ServiceCall<PSequence<String>, PSequence<PostLookup>> getPosts();
+
   /**
    * Creates a new crud post and returns the ID of the newly created post. Example:
    * curl -H 'content-type: application/json' -X POST
@@ -74,21 +83,49 @@ public interface CrudService extends Service {
    */
   ServiceCall<NotUsed, PSequence<PostSummary>> getPostsByAuthor(String author, Integer pageNo, Integer pageSize);
 
+  /**
+   * Gets the number of posts of the author, matched case insensitively. Example:
+   * curl http://localhost:9000/api/crud/author/:author/count
+   *
+   * @param author - count the posts of this author
+   */
+  ServiceCall<NotUsed, AuthorPostCount> countPostsByAuthor(String author);
+
+  /**
+   * Gets the k authors with the most posts, most posts first. Example:
+   * curl http://localhost:9000/api/crud/top-authors/:k
+   *
+   * @param k - number of authors
+   */
+  ServiceCall<NotUsed, PSequence<AuthorPostCount>> topAuthors(Integer k);
+
+  /**
+   * Streams a bounded snapshot of crud posts followed by every post that is added, updated or
+   * deleted (with deleted set) through any node of the cluster from then on. The changes are
+   * shared through pub-sub, which delivers at most once: a change made while this node is
+   * unreachable is not streamed.
+   */
   ServiceCall<NotUsed, Source<PostSummary, ?>> getLivePosts();
 
+  /**
+   * Same as {@link #getLivePosts()}, but only for the posts of the author sent in the request.
+   */
   ServiceCall<String, Source<PostSummary, ?>> getLivePostsByAuthor();
 
   @Override
   default Descriptor descriptor() {
     return named("crud").withCalls(
             restCall(Method.GET, "/api/crud/:id", this::getPost),
+            restCall(Method.POST, "/api/crud/lookup/posts", this::getPosts),
             restCall(Method.POST, "/api/crud/", this::addPost),
             restCall(Method.PUT, "/api/crud/:id", this::updatePost),
             restCall(Method.DELETE, "/api/crud/:id", this::deletePost),
             restCall(Method.GET, "/api/crud/pageNo/:pageNo/pageSize/:pageSize", this::getAllPosts),
             namedCall("livePosts", this::getLivePosts),
             restCall(Method.GET, "/api/crud/author/:author/pageNo/:pageNo/pageSize/:pageSize", this::getPostsByAuthor),
-            namedCall("livePostsByAuthor", this::getLivePostsByAuthor)
+            namedCall("livePostsByAuthor", this::getLivePostsByAuthor),
+            restCall(Method.GET, "/api/crud/author/:author/count", this::countPostsByAuthor),
+            restCall(Method.GET, "/api/crud/top-authors/:k", this::topAuthors)
     ).withAutoAcl(true);
   }
 }
\ No newline at end of file
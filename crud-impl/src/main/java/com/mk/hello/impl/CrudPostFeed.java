@@ -0,0 +1,107 @@
+package com.mk.hello.impl;
+
+import akka.NotUsed;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.BroadcastHub;
+import akka.stream.javadsl.RestartSource;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.lightbend.lagom.javadsl.pubsub.PubSubRef;
+import com.lightbend.lagom.javadsl.pubsub.PubSubRegistry;
+import com.lightbend.lagom.javadsl.pubsub.TopicId;
+import com.lightbend.lagom.serialization.Jsonable;
+import com.mk.hello.api.PostSummary;
+import com.typesafe.config.Config;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.Value;
+
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Cluster wide feed of the posts written through the {@link CrudRepository} of any node. Writes
+ * are published to a Lagom pub-sub topic, every node subscribes to it once and fans the changes
+ * out through a BroadcastHub, so every live post stream on the node shares one subscription.
+ * <p>
+ * Note: pub-sub delivers at most once, a change published while a node is unreachable is not
+ * seen by the live streams of that node.
+ */
+@Singleton
+public class CrudPostFeed {
+
+  private static final int HUB_BUFFER_SIZE = 256;
+
+  private static final TopicId<PostChange> TOPIC = TopicId.of(PostChange.class, "crud-post-changes");
+
+  @Immutable
+  @JsonDeserialize
+  @Value
+  @AllArgsConstructor(onConstructor = @__(@JsonCreator))
+  public static class PostChange implements Jsonable {
+    // normalized author
+    @NonNull
+    String author;
+    @NonNull
+    PostSummary summary;
+  }
+
+  private final PubSubRef<PostChange> topic;
+  private final Source<PostChange, NotUsed> changes;
+  private final int subscriberBuffer;
+  private final OverflowStrategy overflowStrategy;
+
+  @Inject
+  public CrudPostFeed(PubSubRegistry pubSub, Config config, Materializer materializer) {
+    this.topic = pubSub.refFor(TOPIC);
+    this.subscriberBuffer = config.getInt("crud.live-posts.subscriber-buffer");
+    this.overflowStrategy = overflowStrategy(config.getString("crud.live-posts.overflow-strategy"));
+    this.changes = RestartSource.withBackoff(
+            FiniteDuration.create(1, TimeUnit.SECONDS),
+            FiniteDuration.create(30, TimeUnit.SECONDS),
+            0.2,
+            topic::subscriber)
+            .runWith(BroadcastHub.of(PostChange.class, HUB_BUFFER_SIZE), materializer);
+
+    // without any consumer the hub would hold back changes and hand them out stale to the
+    // first consumer that attaches
+    changes.runWith(Sink.ignore(), materializer);
+  }
+
+  void publish(String author, PostSummary summary) {
+    topic.publish(new PostChange(author, summary));
+  }
+
+  /**
+   * Changes published from now on, through a buffer of crud.live-posts.subscriber-buffer changes
+   * that applies crud.live-posts.overflow-strategy when the subscriber falls behind, so a slow
+   * subscriber does not hold back the hub for everybody else.
+   */
+  public Source<PostChange, NotUsed> subscribe() {
+    return changes.buffer(subscriberBuffer, overflowStrategy);
+  }
+
+  private static OverflowStrategy overflowStrategy(String name) {
+    switch (name) {
+      case "drop-head":
+        return OverflowStrategy.dropHead();
+      case "drop-tail":
+        return OverflowStrategy.dropTail();
+      case "drop-new":
+        return OverflowStrategy.dropNew();
+      case "drop-buffer":
+        return OverflowStrategy.dropBuffer();
+      case "fail":
+        return OverflowStrategy.fail();
+      default:
+        throw new IllegalArgumentException("Unknown overflow strategy: " + name);
+    }
+  }
+}
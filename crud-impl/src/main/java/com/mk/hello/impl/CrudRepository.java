@@ -1,37 +1,85 @@
 package com.mk.hello.impl;
 
 import akka.Done;
-import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.datastax.driver.core.utils.UUIDs;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
+import com.lightbend.lagom.javadsl.api.transport.BadRequest;
 import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.mk.hello.api.AuthorPostCount;
 import com.mk.hello.api.PostContent;
+import com.mk.hello.api.PostLookup;
 import com.mk.hello.api.PostSummary;
+import com.typesafe.config.Config;
 import org.pcollections.PSequence;
 import org.pcollections.TreePVector;
+import scala.concurrent.duration.FiniteDuration;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Singleton
 public class CrudRepository {
+  private static final FiniteDuration BACKFILL_RETRY_INTERVAL = FiniteDuration.create(1, TimeUnit.MINUTES);
+  // author_rank holds all authors in a single partition
+  private static final int RANK_BUCKET = 0;
+  private static final Comparator<AuthorPostCount> RANKING =
+          Comparator.comparingLong(AuthorPostCount::getPosts).reversed().thenComparing(AuthorPostCount::getAuthor);
+
   private final CassandraSession uninitialisedSession;
+  private final CrudPostFeed feed;
+
+  private final int liveSnapshotSize;
+  private final int multiGetMaxIds;
+  private final boolean backfillSummaries;
+  private final boolean backfillAuthors;
+  private final boolean backfillCounts;
+  private final int backfillLeaseSeconds;
+  private final int topAuthorsMaxK;
+  private final Materializer materializer;
+  private final ActorSystem system;
 
   // Will return the session when the Cassandra tables have been successfully created
   private volatile CompletableFuture<CassandraSession> initialisedSession;
 
   @Inject
-  public CrudRepository(CassandraSession uninitialisedSession) {
+  public CrudRepository(CassandraSession uninitialisedSession, CrudPostFeed feed, Config config,
+                        Materializer materializer, ActorSystem system) {
     this.uninitialisedSession = uninitialisedSession;
+    this.feed = feed;
+    this.liveSnapshotSize = config.getInt("crud.live-posts.snapshot-size");
+    this.multiGetMaxIds = config.getInt("crud.multi-get.max-ids");
+    this.backfillSummaries = config.getBoolean("crud.post-summary.backfill");
+    this.backfillAuthors = config.getBoolean("crud.post-by-author.backfill");
+    this.backfillCounts = config.getBoolean("crud.author-counts.backfill");
+    this.backfillLeaseSeconds = (int) config.getDuration("crud.backfill.lease", TimeUnit.SECONDS);
+    this.topAuthorsMaxK = config.getInt("crud.author-counts.max-top");
+    this.materializer = materializer;
+    this.system = system;
     // Eagerly create the session
     session();
+    backfill();
   }
 
   private CompletionStage<CassandraSession> session() {
@@ -40,34 +88,426 @@ public class CrudRepository {
     if (initialisedSession == null || initialisedSession.isCompletedExceptionally()) {
       initialisedSession = uninitialisedSession.executeCreateTable(
               "CREATE TABLE IF NOT EXISTS post_content ("
-              + "id text, title text, body text, author text, "
+              + "id text, title text, body text, author text, created timeuuid, "
               + "PRIMARY KEY (id))"
-      ).thenApply(done -> uninitialisedSession).toCompletableFuture();
+      ).thenCompose(done -> addColumn("created timeuuid")
+      ).thenCompose(done -> addColumn("counted boolean")
+      ).thenCompose(done -> uninitialisedSession.executeCreateTable(
+              // one partition per (normalized) author, newest posts first
+              "CREATE TABLE IF NOT EXISTS post_by_author ("
+              + "author text, created timeuuid, id text, title text, "
+              + "PRIMARY KEY (author, created)) "
+              + "WITH CLUSTERING ORDER BY (created DESC)"
+      )).thenCompose(done -> uninitialisedSession.executeCreateTable(
+              // id and title only, read by the list queries instead of post_content
+              "CREATE TABLE IF NOT EXISTS post_summary ("
+              + "id text, title text, "
+              + "PRIMARY KEY (id))"
+      )).thenCompose(done -> uninitialisedSession.executeCreateTable(
+              // number of posts per (normalized) author, of the posts flagged as counted in
+              // post_content (author_post_counts had no flag and cannot be backfilled)
+              "CREATE TABLE IF NOT EXISTS posts_per_author ("
+              + "author text, posts counter, "
+              + "PRIMARY KEY (author))"
+      )).thenCompose(done -> uninitialisedSession.executeCreateTable(
+              // the authors with a positive count in posts_per_author, most posts first
+              "CREATE TABLE IF NOT EXISTS author_rank ("
+              + "bucket int, posts bigint, author text, "
+              + "PRIMARY KEY (bucket, posts, author)) "
+              + "WITH CLUSTERING ORDER BY (posts DESC, author ASC)"
+      )).thenCompose(done -> uninitialisedSession.executeCreateTable(
+              // the backfills claimed by a node, and those done
+              "CREATE TABLE IF NOT EXISTS backfills ("
+              + "name text, done boolean, "
+              + "PRIMARY KEY (name))"
+      )).thenApply(done -> uninitialisedSession).toCompletableFuture();
     }
     return initialisedSession;
   }
 
+  /**
+   * post_content tables created before post_by_author and posts_per_author existed lack their
+   * columns. Cassandra has no "ADD IF NOT EXISTS", so the error for an existing column is ignored.
+   */
+  private CompletionStage<Done> addColumn(String column) {
+    return uninitialisedSession.executeCreateTable("ALTER TABLE post_content ADD " + column)
+            .handle((done, error) -> {
+              Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+              if (cause != null && !(cause instanceof InvalidQueryException)) {
+                throw new CompletionException(cause);
+              }
+              return Done.getInstance();
+            });
+  }
+
+  /**
+   * Runs the enabled backfills one after the other, every one once in the cluster. Retried every
+   * minute until they have all been run or claimed by another node.
+   */
+  private void backfill() {
+    session()
+            .thenCompose(session -> backfill("post-summary", backfillSummaries, this::backfillSummaries))
+            .thenCompose(done -> backfill("post-by-author", backfillAuthors, this::backfillAuthors))
+            .thenCompose(done -> backfill("author-counts", backfillCounts, this::backfillCounts))
+            .thenCompose(done -> backfill("author-rank", true, this::backfillRank))
+            .exceptionally(error -> {
+              system.scheduler().scheduleOnce(BACKFILL_RETRY_INTERVAL, this::backfill, system.dispatcher());
+              return Done.getInstance();
+            });
+  }
+
+  /**
+   * Runs the backfill if this node claims it. A claim is a row in backfills that expires after
+   * crud.backfill.lease unless the backfill is marked as done by then, so a backfill interrupted
+   * by a crash is run again by the next node that starts, and one that fails is released. The
+   * backfills are idempotent, running one again only repeats writes.
+   */
+  private CompletionStage<Done> backfill(String name, boolean enabled, Supplier<CompletionStage<Done>> backfill) {
+    if (!enabled) {
+      return CompletableFuture.completedFuture(Done.getInstance());
+    }
+    return uninitialisedSession.selectOne(new SimpleStatement(
+            "INSERT INTO backfills (name, done) VALUES (?, false) IF NOT EXISTS USING TTL ?", name, backfillLeaseSeconds))
+            .thenCompose(claimed -> {
+              if (!applied(claimed)) {
+                // done, or being run by another node
+                return CompletableFuture.completedFuture(Done.getInstance());
+              }
+              return backfill.get()
+                      .thenCompose(done -> uninitialisedSession.executeWrite(
+                              // without a ttl, the row outlives the claim
+                              "UPDATE backfills SET done = true WHERE name = ?", name))
+                      .handle((done, error) -> error == null
+                              ? CompletableFuture.completedFuture(done)
+                              : uninitialisedSession.executeWrite("DELETE FROM backfills WHERE name = ?", name)
+                                      .<Done>thenApply(released -> {
+                                        throw new CompletionException(error);
+                                      }))
+                      .thenCompose(result -> result);
+            });
+  }
+
+  /**
+   * Copies the id and title of every post into post_summary, for posts written before the table
+   * existed. Every row is written with the write time of the post_content title, so a change or
+   * delete made since always wins over the copy.
+   */
+  private CompletionStage<Done> backfillSummaries() {
+    return uninitialisedSession.select("SELECT id, title, writetime(title) AS written FROM post_content")
+            .mapAsync(4, row -> uninitialisedSession.executeWrite(
+                    "INSERT INTO post_summary (id, title) VALUES (?, ?) USING TIMESTAMP ?",
+                    row.getString("id"), row.getString("title"), row.getLong("written")))
+            .runWith(Sink.ignore(), materializer);
+  }
+
+  /**
+   * Indexes the posts written before post_by_author existed. They have no creation time, the
+   * write time of their title is the closest one left and becomes their created time. It is
+   * only set if the post still exists with the same author, and the index row is written with
+   * the write time of the title, so an update or delete made since always wins over the copy.
+   */
+  private CompletionStage<Done> backfillAuthors() {
+    return uninitialisedSession.select("SELECT id, title, author, created, writetime(title) AS written FROM post_content")
+            .filter(row -> row.getUUID("created") == null)
+            .mapAsync(4, row -> {
+              long written = row.getLong("written");
+              UUID created = timeUuid(written / 1000);
+              return uninitialisedSession.selectOne(new SimpleStatement(
+                      "UPDATE post_content SET created = ? WHERE id = ? IF author = ? AND created = null",
+                      created, row.getString("id"), row.getString("author")))
+                      .thenCompose(result -> applied(result)
+                              ? uninitialisedSession.executeWrite(
+                                      "INSERT INTO post_by_author (author, created, id, title) VALUES (?, ?, ?, ?) USING TIMESTAMP ?",
+                                      normalizeAuthor(row.getString("author")), created, row.getString("id"),
+                                      row.getString("title"), written)
+                              : CompletableFuture.completedFuture(Done.getInstance()));
+            })
+            .runWith(Sink.ignore(), materializer);
+  }
+
+  /**
+   * Counts the posts that are not counted yet, those written before posts_per_author existed.
+   */
+  private CompletionStage<Done> backfillCounts() {
+    return uninitialisedSession.select("SELECT id, counted FROM post_content")
+            .filter(row -> row.isNull("counted"))
+            .mapAsync(4, row -> countExisting(uninitialisedSession, row.getString("id")))
+            .runWith(Sink.ignore(), materializer);
+  }
+
+  /**
+   * Ranks the authors counted before author_rank existed.
+   */
+  private CompletionStage<Done> backfillRank() {
+    return uninitialisedSession.select("SELECT author, posts FROM posts_per_author")
+            .mapAsync(4, row -> rank(uninitialisedSession, row.getString("author"), 0, row.getLong("posts")))
+            .runWith(Sink.ignore(), materializer);
+  }
+
+  /**
+   * Flags the post as counted with a lightweight transaction conditional on its author, and
+   * counts it if the flag was set. Updates and deletes are conditional on the flag they read, so
+   * a post is counted once, for its current author, and only counted off if it was counted.
+   */
+  private CompletionStage<Done> countExisting(CassandraSession session, String id) {
+    return session.selectOne("SELECT author, counted FROM post_content WHERE id = ?", id)
+            .thenCompose(maybeRow -> {
+              if (!maybeRow.isPresent() || !maybeRow.get().isNull("counted")) {
+                return CompletableFuture.completedFuture(Done.getInstance());
+              }
+              String author = maybeRow.get().getString("author");
+              return session.selectOne(new SimpleStatement(
+                      "UPDATE post_content SET counted = true WHERE id = ? IF author = ? AND counted = null", id, author))
+                      .thenCompose(result -> applied(result)
+                              ? countPost(session, normalizeAuthor(author), 1)
+                              // deleted, or changed since the read: start over
+                              : countExisting(session, id));
+            });
+  }
+
+  /**
+   * A time based uuid for the given time, with random low bits so posts written in the same
+   * millisecond do not share a post_by_author row.
+   */
+  private static UUID timeUuid(long millis) {
+    return new UUID(UUIDs.startOf(millis).getMostSignificantBits(), UUID.randomUUID().getLeastSignificantBits());
+  }
+
+  private static boolean applied(Optional<Row> result) {
+    return result.map(row -> row.getBool("[applied]")).orElse(false);
+  }
+
   public CompletionStage<String> addPost(PostContent content) {
     String id = UUID.randomUUID().toString();
+    UUID created = UUIDs.timeBased();
 
-    return session().thenCompose(session ->
-        session.executeWrite("INSERT INTO post_content (id, title, body, author) VALUES (?, ?, ?, ?)",
-            id, content.getTitle(), content.getBody(), content.getAuthor()))
-                .thenApply(ignored -> id);
+    BatchStatement batch = new BatchStatement();
+    batch.add(new SimpleStatement("INSERT INTO post_content (id, title, body, author, created, counted) VALUES (?, ?, ?, ?, ?, true)",
+            id, content.getTitle(), content.getBody(), content.getAuthor(), created));
+    batch.add(new SimpleStatement("INSERT INTO post_by_author (author, created, id, title) VALUES (?, ?, ?, ?)",
+            normalizeAuthor(content.getAuthor()), created, id, content.getTitle()));
+    batch.add(new SimpleStatement("INSERT INTO post_summary (id, title) VALUES (?, ?)",
+            id, content.getTitle()));
+
+    return session().thenCompose(session -> session.executeWriteBatch(batch)
+            .thenCompose(done -> countPost(session, normalizeAuthor(content.getAuthor()), 1)))
+            .thenApply(ignored -> {
+              feed.publish(normalizeAuthor(content.getAuthor()), new PostSummary(id, content.getTitle()));
+              return id;
+            });
   }
 
+  /**
+   * Note: the post is read first to find its post_by_author entry. post_content is then updated
+   * on its own with a lightweight transaction, conditional on the author that was read, and the
+   * other tables follow in a logged batch (conditional batches are restricted to a single
+   * partition). A delete that slips in between removes the post_content row, so it is read again
+   * after the batch and the rows the batch wrote are removed if it is gone.
+   */
   public CompletionStage<Done> updatePost(String id, PostContent content) {
 
     return session().thenCompose(session ->
-            session.executeWrite("UPDATE post_content set title = ?, body = ?, author = ? WHERE id = ? IF EXISTS",
-                    content.getTitle(), content.getBody(), content.getAuthor(), id));
+            session.selectOne("SELECT author, created, counted FROM post_content WHERE id = ?", id)
+                    .thenCompose(maybeRow -> {
+                      if (!maybeRow.isPresent()) {
+                        return CompletableFuture.completedFuture(Done.getInstance());
+                      }
+                      Row row = maybeRow.get();
+                      return session.selectOne(new SimpleStatement(
+                              "UPDATE post_content set title = ?, body = ?, author = ? WHERE id = ? IF author = ? AND "
+                                      + countedCondition(row),
+                              content.getTitle(), content.getBody(), content.getAuthor(), id, row.getString("author")))
+                              .thenCompose(result -> applied(result)
+                                      ? updateIndexes(session, id, content, row)
+                                      // deleted, or the author changed since the read: start over
+                                      : updatePost(id, content));
+                    }));
   }
 
+  private CompletionStage<Done> updateIndexes(CassandraSession session, String id, PostContent content, Row row) {
+    BatchStatement batch = new BatchStatement();
+    batch.add(new SimpleStatement("UPDATE post_summary set title = ? WHERE id = ?",
+            content.getTitle(), id));
+
+    // rows written before post_by_author existed have no created time and are not indexed
+    String oldAuthor = normalizeAuthor(row.getString("author"));
+    String newAuthor = normalizeAuthor(content.getAuthor());
+    UUID created = row.getUUID("created");
+    if (created != null) {
+      if (!oldAuthor.equals(newAuthor)) {
+        batch.add(new SimpleStatement("DELETE FROM post_by_author WHERE author = ? AND created = ?",
+                oldAuthor, created));
+      }
+      batch.add(new SimpleStatement("INSERT INTO post_by_author (author, created, id, title) VALUES (?, ?, ?, ?)",
+              newAuthor, created, id, content.getTitle()));
+    }
+    CompletionStage<Done> written = session.executeWriteBatch(batch);
+    if (!oldAuthor.equals(newAuthor) && isCounted(row)) {
+      written = written
+              .thenCompose(done -> countPost(session, oldAuthor, -1))
+              .thenCompose(done -> countPost(session, newAuthor, 1));
+    }
+    return written
+            .thenCompose(done -> session.selectOne("SELECT id FROM post_content WHERE id = ?", id))
+            .thenCompose(maybeRow -> {
+              if (!maybeRow.isPresent()) {
+                // deleted while the batch was written, the delete may have run before it
+                return session.executeWriteBatch(deleteIndexes(id, newAuthor, created));
+              }
+              feed.publish(newAuthor, new PostSummary(id, content.getTitle()));
+              return CompletableFuture.completedFuture(Done.getInstance());
+            });
+  }
+
+  /**
+   * Note: like updatePost, post_content is deleted with a lightweight transaction conditional on
+   * the author and the counted flag that were read, so only one of several concurrent deletes
+   * goes on to remove the other rows and count the post off, if it was counted.
+   */
   public CompletionStage<Done> deletePost(String id) {
 
     return session().thenCompose(session ->
-            session.executeWrite("DELETE FROM post_content WHERE id = ? IF EXISTS",
-                    id));
+            session.selectOne("SELECT author, created, counted FROM post_content WHERE id = ?", id)
+                    .thenCompose(maybeRow -> {
+                      if (!maybeRow.isPresent()) {
+                        return CompletableFuture.completedFuture(Done.getInstance());
+                      }
+                      Row row = maybeRow.get();
+                      String author = normalizeAuthor(row.getString("author"));
+                      return session.selectOne(new SimpleStatement(
+                              "DELETE FROM post_content WHERE id = ? IF author = ? AND " + countedCondition(row),
+                              id, row.getString("author")))
+                              .thenCompose(result -> {
+                                if (!applied(result)) {
+                                  // deleted, or the author changed since the read: start over
+                                  return deletePost(id);
+                                }
+                                return session.executeWriteBatch(deleteIndexes(id, author, row.getUUID("created")))
+                                        .thenCompose(done -> isCounted(row)
+                                                ? countPost(session, author, -1)
+                                                : CompletableFuture.completedFuture(done))
+                                        .thenApply(done -> {
+                                          feed.publish(author, new PostSummary(id, "", true));
+                                          return done;
+                                        });
+                              });
+                    }));
+  }
+
+  private static BatchStatement deleteIndexes(String id, String author, UUID created) {
+    BatchStatement batch = new BatchStatement();
+    batch.add(new SimpleStatement("DELETE FROM post_summary WHERE id = ?", id));
+    if (created != null) {
+      batch.add(new SimpleStatement("DELETE FROM post_by_author WHERE author = ? AND created = ?",
+              author, created));
+    }
+    return batch;
+  }
+
+  /**
+   * Whether the post read into the row is counted in posts_per_author.
+   */
+  private static boolean isCounted(Row row) {
+    return !row.isNull("counted") && row.getBool("counted");
+  }
+
+  /**
+   * Condition of a lightweight transaction that the counted flag is still the one read into the
+   * row, so a change and the backfill never both count the same post.
+   */
+  private static String countedCondition(Row row) {
+    return isCounted(row) ? "counted = true" : "counted = null";
+  }
+
+  /**
+   * Note: counters cannot be written in a batch with other tables, so the count is changed after
+   * the batch of the post. A failure in between leaves the count off by one.
+   * <p>
+   * The count is read back to move the author in author_rank. Concurrent changes of the count of
+   * an author may leave a row with an outdated count there, topAuthors checks the rows it reads
+   * against posts_per_author and replaces the outdated ones.
+   */
+  private static CompletionStage<Done> countPost(CassandraSession session, String author, long delta) {
+    return session.executeWrite("UPDATE posts_per_author SET posts = posts + ? WHERE author = ?", delta, author)
+            .thenCompose(done -> session.selectOne("SELECT posts FROM posts_per_author WHERE author = ?", author))
+            .thenCompose(maybeRow -> {
+              long posts = maybeRow.map(row -> row.getLong("posts")).orElse(0L);
+              return rank(session, author, posts - delta, posts);
+            });
+  }
+
+  /**
+   * Moves the author in author_rank from the previous count to the given one, only positive
+   * counts are ranked.
+   */
+  private static CompletionStage<Done> rank(CassandraSession session, String author, long previous, long posts) {
+    BatchStatement batch = new BatchStatement();
+    if (previous > 0) {
+      batch.add(new SimpleStatement("DELETE FROM author_rank WHERE bucket = ? AND posts = ? AND author = ?",
+              RANK_BUCKET, previous, author));
+    }
+    if (posts > 0) {
+      batch.add(new SimpleStatement("INSERT INTO author_rank (bucket, posts, author) VALUES (?, ?, ?)",
+              RANK_BUCKET, posts, author));
+    }
+    return batch.size() == 0 ? CompletableFuture.completedFuture(Done.getInstance()) : session.executeWriteBatch(batch);
+  }
+
+  public CompletionStage<AuthorPostCount> countPostsByAuthor(String author) {
+    String normalizedAuthor = normalizeAuthor(author);
+
+    return session().thenCompose(session ->
+            session.selectOne("SELECT posts FROM posts_per_author WHERE author = ?", normalizedAuthor)
+    ).thenApply(maybeRow -> new AuthorPostCount(normalizedAuthor, maybeRow.map(row -> row.getLong("posts")).orElse(0L)));
+  }
+
+  /**
+   * Served from author_rank: its rows are read from the top down and the authors are looked up in
+   * posts_per_author, until the k-th count is above that of the last row read, which no author
+   * not read yet can beat.
+   */
+  public CompletionStage<PSequence<AuthorPostCount>> topAuthors(Integer k) {
+    if (k == null || k <= 0 || k > topAuthorsMaxK) {
+      throw new BadRequest("k must be between 1 and " + topAuthorsMaxK);
+    }
+    return session().thenCompose(session -> topAuthors(session, k, k)).thenApply(TreePVector::from);
+  }
+
+  /**
+   * Reads the first {@code limit} rows of author_rank, doubling the limit until the top k are
+   * known. Rows whose count differs from posts_per_author are replaced.
+   */
+  private CompletionStage<List<AuthorPostCount>> topAuthors(CassandraSession session, int k, int limit) {
+    return session.selectAll("SELECT posts, author FROM author_rank WHERE bucket = ? LIMIT ?", RANK_BUCKET, limit)
+            .thenCompose(rows -> {
+              if (rows.isEmpty()) {
+                return CompletableFuture.completedFuture(Collections.<AuthorPostCount>emptyList());
+              }
+              List<String> authors = rows.stream().map(row -> row.getString("author")).distinct().collect(Collectors.toList());
+              return session.selectAll("SELECT author, posts FROM posts_per_author WHERE author IN ?", authors)
+                      .thenCompose(countRows -> {
+                        Map<String, Long> counts = new HashMap<>();
+                        for (Row row : countRows) {
+                          counts.put(row.getString("author"), row.getLong("posts"));
+                        }
+                        for (Row row : rows) {
+                          long posts = counts.getOrDefault(row.getString("author"), 0L);
+                          if (row.getLong("posts") != posts) {
+                            rank(session, row.getString("author"), row.getLong("posts"), posts);
+                          }
+                        }
+                        List<AuthorPostCount> ranked = counts.entrySet().stream()
+                                .filter(count -> count.getValue() > 0)
+                                .map(count -> new AuthorPostCount(count.getKey(), count.getValue()))
+                                .sorted(RANKING)
+                                .collect(Collectors.toList());
+                        long last = rows.get(rows.size() - 1).getLong("posts");
+                        if (rows.size() < limit || (ranked.size() >= k && ranked.get(k - 1).getPosts() > last)) {
+                          return CompletableFuture.completedFuture(ranked.subList(0, Math.min(k, ranked.size())));
+                        }
+                        return topAuthors(session, k, limit * 2);
+                      });
+            });
   }
 
   public CompletionStage<Optional<PostContent>> getPost(String id) {
@@ -77,6 +517,32 @@ public class CrudRepository {
     ).thenApply(maybeRow -> maybeRow.map(this::mapPostContent));
   }
 
+  /**
+   * Reads all the posts with a single IN query on the partition key, the coordinator fans the
+   * reads out to the replicas. The lookups are returned in the order of the ids.
+   */
+  public CompletionStage<PSequence<PostLookup>> getPosts(List<String> ids) {
+    if (ids.size() > multiGetMaxIds) {
+      throw new BadRequest("At most " + multiGetMaxIds + " ids can be looked up at once");
+    }
+    if (ids.isEmpty()) {
+      return CompletableFuture.completedFuture(TreePVector.empty());
+    }
+    List<String> distinctIds = ids.stream().distinct().collect(Collectors.toList());
+
+    return session().thenCompose(session ->
+            session.selectAll("SELECT * FROM post_content WHERE id IN ?", distinctIds)
+    ).thenApply(rows -> {
+      Map<String, PostContent> posts = new HashMap<>();
+      for (Row row : rows) {
+        posts.put(row.getString("id"), mapPostContent(row));
+      }
+      return TreePVector.from(ids.stream()
+              .map(id -> new PostLookup(id, Optional.ofNullable(posts.get(id))))
+              .collect(Collectors.toList()));
+    });
+  }
+
   /**
    * Note: It is a bad idea to use select * without a limit cuz session.selectAll returns
    * a List<Row> and you will run out of memory. Instead use session.select if you have no
@@ -90,7 +556,7 @@ public class CrudRepository {
   public CompletionStage<PSequence<PostSummary>> getAllPosts(Integer pageNo, Integer pageSize) {
 
        return session().thenCompose(session ->
-              session.selectAll("SELECT * FROM post_content")
+              session.selectAll("SELECT id, title FROM post_summary LIMIT ?", (pageNo + 1) * pageSize)
        ).thenApply(rows -> {
                 List<PostSummary> posts = rows.stream()
                         .skip(pageNo*pageSize)
@@ -100,30 +566,44 @@ public class CrudRepository {
               });
   }
 
+  /**
+   * Streams a bounded snapshot of the posts followed by the shared change feed. concat
+   * subscribes to the feed right away, its buffer keeps the changes made during the snapshot.
+   */
   public CompletionStage<Source<PostSummary, ?>> getAllPosts() {
 
     return session().thenCompose(session ->
             CompletableFuture.completedFuture(
-                    session.select("SELECT * FROM post_content")
-                            .map(this::mapPostSummary)));
+                    session.select("SELECT id, title FROM post_summary LIMIT ?", liveSnapshotSize)
+                            .map(this::mapPostSummary)
+                            .concat(feed.subscribe()
+                                    .map(CrudPostFeed.PostChange::getSummary))));
   }
 
+  /**
+   * Streams a bounded snapshot of the posts of the author followed by the shared change feed.
+   * The snapshot reads a single post_by_author partition, so the cost depends on the number of
+   * posts of the author and not on the size of post_content.
+   */
   public CompletionStage<Source<PostSummary, ?>> getPostsByAuthor(String author) {
+    String normalizedAuthor = normalizeAuthor(author);
 
     return session().thenCompose(session ->
             CompletableFuture.completedFuture(
-                    session.select("SELECT * FROM post_content")
-                            .filter(row -> row.getString("author").equalsIgnoreCase(author))
-                            .map(this::mapPostSummary)));
+                    session.select("SELECT id, title FROM post_by_author WHERE author = ? LIMIT ?", normalizedAuthor, liveSnapshotSize)
+                            .map(this::mapPostSummary)
+                            .concat(feed.subscribe()
+                                    .filter(change -> change.getAuthor().equals(normalizedAuthor))
+                                    .map(CrudPostFeed.PostChange::getSummary))));
   }
 
   public CompletionStage<PSequence<PostSummary>> getPostsByAuthor(String author, Integer pageNo, Integer pageSize) {
 
     return session().thenCompose(session ->
-            session.selectAll("SELECT * FROM post_content")
+            session.selectAll("SELECT id, title FROM post_by_author WHERE author = ? LIMIT ?",
+                    normalizeAuthor(author), (pageNo + 1) * pageSize)
     ).thenApply(rows -> {
       List<PostSummary> posts = rows.stream()
-              .filter(row -> row.getString("author").equalsIgnoreCase(author))
               .skip(pageNo*pageSize)
               .limit(pageSize)
               .map(this::mapPostSummary).collect(Collectors.toList());
@@ -131,6 +611,13 @@ public class CrudRepository {
     });
   }
 
+  /**
+   * Authors are matched case insensitively, so post_by_author is keyed by the lower case name.
+   */
+  private static String normalizeAuthor(String author) {
+    return author.toLowerCase(Locale.ROOT);
+  }
+
   private PostSummary mapPostSummary(Row row) {
     return new PostSummary(
             row.getString("id"),
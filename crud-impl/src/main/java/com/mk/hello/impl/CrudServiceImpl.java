@@ -5,9 +5,11 @@ import akka.stream.javadsl.Source;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
 import com.lightbend.lagom.javadsl.persistence.PersistentEntityRegistry;
 import com.lightbend.lagom.javadsl.persistence.ReadSide;
+import com.mk.hello.api.AuthorPostCount;
 import com.mk.hello.api.BlogService;
 import com.mk.hello.api.CrudService;
 import com.mk.hello.api.PostContent;
+import com.mk.hello.api.PostLookup;
 import com.mk.hello.api.PostSummary;
 import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
 import com.datastax.driver.core.Row;
@@ -49,6 +51,11 @@ public class CrudServiceImpl implements CrudService {
     return content -> repository.getPost(id);
   }
 
+  @Override
+  public ServiceCall<PSequence<String>, PSequence<PostLookup>> getPosts() {
+    return ids -> repository.getPosts(ids);
+  }
+
   @Override
   public ServiceCall<PostContent, String> addPost() {
     return content -> repository.addPost(content);
@@ -103,4 +110,14 @@ public class CrudServiceImpl implements CrudService {
       return result;
     };
   }
+
+  @Override
+  public ServiceCall<NotUsed, AuthorPostCount> countPostsByAuthor(String author) {
+    return req -> repository.countPostsByAuthor(author);
+  }
+
+  @Override
+  public ServiceCall<NotUsed, PSequence<AuthorPostCount>> topAuthors(Integer k) {
+    return req -> repository.topAuthors(k);
+  }
 }
\ No newline at end of file
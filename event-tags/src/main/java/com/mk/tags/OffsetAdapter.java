@@ -0,0 +1,34 @@
+package com.mk.tags;
+
+import akka.persistence.query.NoOffset;
+import akka.persistence.query.Sequence;
+import akka.persistence.query.TimeBasedUUID;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+
+/**
+ * Converts between the Lagom offsets handed to read-side handlers and topic producers and the
+ * Akka Persistence Query offsets used by the Lagom offset store SPI.
+ */
+public final class OffsetAdapter {
+
+  private OffsetAdapter() {
+  }
+
+  public static Offset toLagom(akka.persistence.query.Offset offset) {
+    if (offset instanceof Sequence) {
+      return Offset.sequence(((Sequence) offset).value());
+    } else if (offset instanceof TimeBasedUUID) {
+      return Offset.timeBasedUUID(((TimeBasedUUID) offset).value());
+    }
+    return Offset.NONE;
+  }
+
+  public static akka.persistence.query.Offset toAkka(Offset offset) {
+    if (offset instanceof Offset.Sequence) {
+      return akka.persistence.query.Offset.sequence(((Offset.Sequence) offset).value());
+    } else if (offset instanceof Offset.TimeBasedUUID) {
+      return akka.persistence.query.Offset.timeBasedUUID(((Offset.TimeBasedUUID) offset).value());
+    }
+    return NoOffset.getInstance();
+  }
+}
@@ -0,0 +1,58 @@
+package com.mk.tags;
+
+import akka.persistence.journal.EventAdapter;
+import akka.persistence.journal.EventSeq;
+import akka.persistence.journal.Tagged;
+import com.lightbend.lagom.javadsl.persistence.AggregateEvent;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Optional;
+
+/**
+ * Journal event adapter that adds the previous shard tag to the events persisted during a resize
+ * of a {@link ResizableTag}. A service configures a subclass for its event type, the journal
+ * creates it with its no-argument constructor.
+ */
+public abstract class PreviousShardTagger<E extends AggregateEvent<E>> implements EventAdapter {
+
+  private final Class<E> eventType;
+
+  protected PreviousShardTagger(Class<E> eventType) {
+    this.eventType = eventType;
+  }
+
+  /**
+   * The tags the events are persisted with.
+   */
+  protected abstract ResizableTag<E> tags();
+
+  /**
+   * The id of the entity that persisted the event, empty if the event is to keep its current tag
+   * only.
+   */
+  protected abstract Optional<String> entityId(E event);
+
+  @Override
+  public String manifest(Object event) {
+    return "";
+  }
+
+  @Override
+  public Object toJournal(Object event) {
+    if (!(event instanceof Tagged) || !eventType.isInstance(((Tagged) event).payload())) {
+      return event;
+    }
+    E payload = eventType.cast(((Tagged) event).payload());
+    return entityId(payload)
+            .flatMap(id -> tags().previousTag(id)
+                    .<Object>map(previous -> new Tagged(payload, new HashSet<>(Arrays.asList(
+                            tags().current().forEntityId(id).tag(), previous.tag())))))
+            .orElse(event);
+  }
+
+  @Override
+  public EventSeq fromJournal(Object event, String manifest) {
+    return EventSeq.single(event);
+  }
+}
@@ -0,0 +1,253 @@
+package com.mk.tags;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.javadsl.Flow;
+import com.datastax.driver.core.utils.UUIDs;
+import com.lightbend.lagom.javadsl.persistence.AggregateEvent;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventShards;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor.ReadSideHandler;
+import com.typesafe.config.Config;
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sharded event tag whose number of shards comes from configuration:
+ * <pre>
+ *   shards = 8
+ *   # every earlier count, oldest first, with the instant the next count took over
+ *   resized = [{ shards = 4, until = "2026-01-01T00:00:00Z" }]
+ *   # only while resizing
+ *   tag-previous = on
+ * </pre>
+ * A shard count moves most entities to another shard, so a resize goes through a handover. Events
+ * are taken from the tags of the count that was current when they were persisted: up to the until
+ * of the first earlier count from its tags, and so on, so every event is seen exactly once.
+ * Consumers subscribe to the tags of all counts, the events before a resize are only found under
+ * the tags of the earlier counts, so an entry of resized is never removed.
+ * <p>
+ * While tag-previous is on, events are tagged with both the shard of the last earlier count and
+ * their current shard (see {@link PreviousShardTagger}), for the nodes still running with the
+ * earlier count. until has to be later than the time the last node of the resized deployment
+ * started, tag-previous can be turned off once every consumer is past it.
+ * <p>
+ * The events of an entity move to another tag at the handover, so a consumer holds back the tags
+ * of a count until it has taken all events up to the handover from the tags of the earlier counts
+ * (see {@link #handover}), which keeps the events of every entity in order.
+ * <p>
+ * Tags of a count other than {@link #LEGACY_SHARDS} get a name of their own, so that the tags of
+ * two counts never mix in the journal.
+ * <p>
+ * Consumers are read-side processors ({@link #withHandover}) and topic producers ({@link #handover}
+ * and {@link #startOf}).
+ */
+public final class ResizableTag<E extends AggregateEvent<E>> {
+
+  // the count the tags were created with, its tags keep their original names
+  public static final int LEGACY_SHARDS = 4;
+
+  // oldest first, the last one is current
+  private final List<Epoch<E>> epochs;
+  private final boolean tagPrevious;
+
+  private ResizableTag(List<Epoch<E>> epochs, boolean tagPrevious) {
+    this.epochs = epochs;
+    this.tagPrevious = tagPrevious;
+  }
+
+  public static <E extends AggregateEvent<E>> ResizableTag<E> fromConfig(Class<E> eventType, Config config) {
+    List<Epoch<E>> epochs = new ArrayList<>();
+    Set<Integer> counts = new HashSet<>();
+    long from = 0;
+    List<? extends Config> resized = config.hasPath("resized") ? config.getConfigList("resized") : new ArrayList<>();
+    for (Config earlier : resized) {
+      int shards = earlier.getInt("shards");
+      long until = Instant.parse(earlier.getString("until")).toEpochMilli();
+      if (!counts.add(shards)) {
+        throw new IllegalArgumentException("A shard count can only be used once, " + shards + " is repeated");
+      }
+      if (until <= from) {
+        throw new IllegalArgumentException("The resized entries must be ordered by until");
+      }
+      epochs.add(new Epoch<>(shards(eventType, shards), from, until));
+      from = until;
+    }
+    int shards = config.getInt("shards");
+    if (!counts.add(shards)) {
+      throw new IllegalArgumentException("shards must differ from the resized counts, " + shards + " is repeated");
+    }
+    epochs.add(new Epoch<>(shards(eventType, shards), from, Long.MAX_VALUE));
+    boolean tagPrevious = config.hasPath("tag-previous") && config.getBoolean("tag-previous");
+    return new ResizableTag<>(epochs, tagPrevious);
+  }
+
+  private static <E extends AggregateEvent<E>> AggregateEventShards<E> shards(Class<E> eventType, int shards) {
+    String name = shards == LEGACY_SHARDS ? eventType.getName() : eventType.getName() + "_" + shards + "_";
+    return AggregateEventTag.sharded(eventType, name, shards);
+  }
+
+  /**
+   * The tagger events are persisted with.
+   */
+  public AggregateEventShards<E> current() {
+    return epochs.get(epochs.size() - 1).shards;
+  }
+
+  /**
+   * Tags to consume: those of every count, oldest first.
+   */
+  public PSequence<AggregateEventTag<E>> allTags() {
+    PSequence<AggregateEventTag<E>> tags = TreePVector.empty();
+    for (Epoch<E> epoch : epochs) {
+      tags = tags.plusAll(epoch.shards.allTags());
+    }
+    return tags;
+  }
+
+  /**
+   * The tags of every count, oldest first. The events of the tags of a count are all older than
+   * those of the next count.
+   */
+  public List<PSequence<AggregateEventTag<E>>> tagsByCount() {
+    List<PSequence<AggregateEventTag<E>>> tags = new ArrayList<>();
+    for (Epoch<E> epoch : epochs) {
+      tags.add(epoch.shards.allTags());
+    }
+    return tags;
+  }
+
+  /**
+   * Previous tag of an entity, to be added to its events while tag-previous is on.
+   */
+  public Optional<AggregateEventTag<E>> previousTag(String entityId) {
+    if (!tagPrevious || epochs.size() < 2) {
+      return Optional.empty();
+    }
+    return Optional.of(epochs.get(epochs.size() - 2).shards.forEntityId(entityId));
+  }
+
+  /**
+   * Whether the event at the given offset is to be taken from the given tag.
+   */
+  public boolean accepts(AggregateEventTag<E> tag, Offset offset) {
+    Epoch<E> epoch = epochOf(tag);
+    if (!(offset instanceof Offset.TimeBasedUUID)) {
+      // offsets without a time only come from journals that know no resize
+      return epoch == epochs.get(epochs.size() - 1);
+    }
+    long time = UUIDs.unixTimestamp(((Offset.TimeBasedUUID) offset).value());
+    return time > epoch.from && time <= epoch.until;
+  }
+
+  /**
+   * Takes the events {@link #accepts} takes from the given tag. The first event of the tag of a
+   * later count is held back until the barrier has seen the consumer take every event up to the
+   * handover from the tags of the earlier counts.
+   */
+  public <T> Flow<Pair<T, Offset>, Pair<T, Offset>, NotUsed> handover(AggregateEventTag<E> tag, Barrier<E> barrier) {
+    int index = epochs.indexOf(epochOf(tag));
+    Flow<Pair<T, Offset>, Pair<T, Offset>, NotUsed> accepted = Flow.<Pair<T, Offset>>create()
+            .filter(eventAndOffset -> accepts(tag, eventAndOffset.second()));
+    if (index == 0) {
+      return accepted;
+    }
+    PSequence<AggregateEventTag<E>> earlier = TreePVector.empty();
+    for (Epoch<E> epoch : epochs.subList(0, index)) {
+      earlier = earlier.plusAll(epoch.shards.allTags());
+    }
+    PSequence<AggregateEventTag<E>> earlierTags = earlier;
+    return accepted
+            .statefulMapConcat(() -> {
+              // the barrier is asked once per materialization, when the first event arrives
+              AtomicReference<CompletionStage<Done>> passed = new AtomicReference<>();
+              return eventAndOffset -> Collections.singletonList(Pair.create(eventAndOffset,
+                      passed.updateAndGet(p -> p == null ? barrier.reached(earlierTags) : p)));
+            })
+            .mapAsync(1, gated -> gated.second().thenApply(done -> gated.first()));
+  }
+
+  /**
+   * Makes a read-side handler consume the events of its tag as {@link #handover} passes them,
+   * from {@link #startOf} its stored offset.
+   */
+  public ReadSideHandler<E> withHandover(Barrier<E> barrier, ReadSideHandler<E> handler) {
+    if (epochs.size() == 1) {
+      return handler;
+    }
+    return new ReadSideHandler<E>() {
+
+      private AggregateEventTag<E> tag = null; // initialized in prepare
+
+      @Override
+      public CompletionStage<Done> globalPrepare() {
+        return handler.globalPrepare();
+      }
+
+      @Override
+      public CompletionStage<Offset> prepare(AggregateEventTag<E> tag) {
+        this.tag = tag;
+        return handler.prepare(tag).thenApply(offset -> startOf(tag, offset));
+      }
+
+      @Override
+      public Flow<Pair<E, Offset>, Done, ?> handle() {
+        return ResizableTag.this.<E>handover(tag, barrier).via(handler.handle());
+      }
+    };
+  }
+
+  /**
+   * Where a tag without a stored offset starts: the handover to its count.
+   */
+  public Offset startOf(AggregateEventTag<E> tag, Offset offset) {
+    long from = epochOf(tag).from;
+    return offset.equals(Offset.NONE) && from > 0 ? Offset.timeBasedUUID(UUIDs.startOf(from)) : offset;
+  }
+
+  private Epoch<E> epochOf(AggregateEventTag<E> tag) {
+    for (Epoch<E> epoch : epochs) {
+      if (epoch.shards.allTags().contains(tag)) {
+        return epoch;
+      }
+    }
+    throw new IllegalArgumentException("Unknown tag " + tag.tag());
+  }
+
+  /**
+   * Tells when a consumer has taken every event the given tags of earlier counts carry.
+   */
+  public interface Barrier<E extends AggregateEvent<E>> {
+
+    /**
+     * Completes once the consumer has taken every event {@link #accepts} takes from the tags.
+     */
+    CompletionStage<Done> reached(PSequence<AggregateEventTag<E>> tags);
+  }
+
+  private static final class Epoch<E extends AggregateEvent<E>> {
+    final AggregateEventShards<E> shards;
+    // exclusive, 0 for the first count
+    final long from;
+    // inclusive, Long.MAX_VALUE for the current count
+    final long until;
+
+    Epoch(AggregateEventShards<E> shards, long from, long until) {
+      this.shards = shards;
+      this.from = from;
+      this.until = until;
+    }
+  }
+}
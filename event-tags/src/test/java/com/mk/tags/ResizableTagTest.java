@@ -0,0 +1,164 @@
+package com.mk.tags;
+
+import akka.Done;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.testkit.JavaTestKit;
+import com.datastax.driver.core.utils.UUIDs;
+import com.lightbend.lagom.javadsl.persistence.AggregateEvent;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTagger;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pcollections.PSequence;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ResizableTagTest {
+
+  private static final long UNTIL = Instant.parse("2026-01-01T00:00:00Z").toEpochMilli();
+
+  static ActorSystem system;
+  static Materializer materializer;
+
+  @BeforeClass
+  public static void setup() {
+    system = ActorSystem.create("ResizableTagTest");
+    materializer = ActorMaterializer.create(system);
+  }
+
+  @AfterClass
+  public static void teardown() {
+    JavaTestKit.shutdownActorSystem(system);
+    system = null;
+  }
+
+  private static final class TestEvent implements AggregateEvent<TestEvent> {
+    @Override
+    public AggregateEventTagger<TestEvent> aggregateTag() {
+      return AggregateEventTag.of(TestEvent.class);
+    }
+  }
+
+  private static ResizableTag<TestEvent> resized(boolean tagPrevious) {
+    return ResizableTag.fromConfig(TestEvent.class, ConfigFactory.parseString(
+            "shards = 8, resized = [{ shards = 4, until = \"2026-01-01T00:00:00Z\" }], tag-previous = " + tagPrevious));
+  }
+
+  private static Offset at(long millis) {
+    return Offset.timeBasedUUID(UUIDs.startOf(millis));
+  }
+
+  @Test
+  public void testAllTagsKeepTheEarlierCounts() {
+    ResizableTag<TestEvent> tags = resized(false);
+    assertEquals(12, tags.allTags().size());
+    assertEquals(TestEvent.class.getName() + "0", tags.allTags().get(0).tag());
+    assertEquals(TestEvent.class.getName() + "_8_0", tags.allTags().get(4).tag());
+    assertEquals(8, tags.current().allTags().size());
+    assertEquals(2, tags.tagsByCount().size());
+    assertEquals(4, tags.tagsByCount().get(0).size());
+  }
+
+  @Test
+  public void testAcceptsEachEventFromOneCount() {
+    ResizableTag<TestEvent> tags = resized(false);
+    AggregateEventTag<TestEvent> earlier = tags.tagsByCount().get(0).get(0);
+    AggregateEventTag<TestEvent> current = tags.tagsByCount().get(1).get(0);
+
+    assertTrue(tags.accepts(earlier, at(UNTIL)));
+    assertFalse(tags.accepts(earlier, at(UNTIL + 1)));
+    assertFalse(tags.accepts(current, at(UNTIL)));
+    assertTrue(tags.accepts(current, at(UNTIL + 1)));
+
+    assertFalse(tags.accepts(earlier, Offset.sequence(1)));
+    assertTrue(tags.accepts(current, Offset.sequence(1)));
+  }
+
+  @Test
+  public void testStartOfALaterCount() {
+    ResizableTag<TestEvent> tags = resized(false);
+    AggregateEventTag<TestEvent> earlier = tags.tagsByCount().get(0).get(0);
+    AggregateEventTag<TestEvent> current = tags.tagsByCount().get(1).get(0);
+
+    assertEquals(Offset.NONE, tags.startOf(earlier, Offset.NONE));
+    assertEquals(at(UNTIL), tags.startOf(current, Offset.NONE));
+    assertEquals(at(UNTIL + 5), tags.startOf(current, at(UNTIL + 5)));
+  }
+
+  @Test
+  public void testPreviousTagOnlyWhileTagPrevious() {
+    assertTrue(resized(true).tagsByCount().get(0).contains(resized(true).previousTag("post").get()));
+    assertFalse(resized(false).previousTag("post").isPresent());
+    assertFalse(ResizableTag.fromConfig(TestEvent.class, ConfigFactory.parseString("shards = 4, tag-previous = on"))
+            .previousTag("post").isPresent());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRepeatedCountIsRejected() {
+    ResizableTag.fromConfig(TestEvent.class, ConfigFactory.parseString(
+            "shards = 4, resized = [{ shards = 4, until = \"2026-01-01T00:00:00Z\" }]"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnorderedResizesAreRejected() {
+    ResizableTag.fromConfig(TestEvent.class, ConfigFactory.parseString(
+            "shards = 16, resized = [{ shards = 4, until = \"2026-02-01T00:00:00Z\" }, "
+                    + "{ shards = 8, until = \"2026-01-01T00:00:00Z\" }]"));
+  }
+
+  @Test
+  public void testHandoverHoldsBackALaterCount() throws Exception {
+    ResizableTag<TestEvent> tags = resized(false);
+    AggregateEventTag<TestEvent> current = tags.tagsByCount().get(1).get(0);
+    List<PSequence<AggregateEventTag<TestEvent>>> asked = new ArrayList<>();
+    CompletableFuture<Done> reached = new CompletableFuture<>();
+
+    CompletionStage<List<Pair<String, Offset>>> handed = Source.from(Arrays.asList(
+            Pair.create("before", at(UNTIL)), Pair.create("first", at(UNTIL + 1)), Pair.create("second", at(UNTIL + 2))))
+            .via(tags.<String>handover(current, earlierTags -> {
+              asked.add(earlierTags);
+              return reached;
+            }))
+            .runWith(Sink.seq(), materializer);
+
+    assertFalse(handed.toCompletableFuture().isDone());
+    reached.complete(Done.getInstance());
+    List<Pair<String, Offset>> events = handed.toCompletableFuture().get(5, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList("first", "second"), Arrays.asList(events.get(0).first(), events.get(1).first()));
+    assertEquals(2, events.size());
+    assertEquals(1, asked.size());
+    assertEquals(tags.tagsByCount().get(0), asked.get(0));
+  }
+
+  @Test
+  public void testHandoverPassesTheFirstCount() throws Exception {
+    ResizableTag<TestEvent> tags = resized(false);
+    AggregateEventTag<TestEvent> earlier = tags.tagsByCount().get(0).get(0);
+
+    List<Pair<String, Offset>> events = Source.from(Arrays.asList(
+            Pair.create("before", at(UNTIL)), Pair.create("after", at(UNTIL + 1))))
+            .via(tags.<String>handover(earlier, earlierTags -> {
+              throw new AssertionError("the first count has no earlier tags");
+            }))
+            .runWith(Sink.seq(), materializer)
+            .toCompletableFuture().get(5, TimeUnit.SECONDS);
+    assertEquals(1, events.size());
+    assertEquals("before", events.get(0).first());
+  }
+}
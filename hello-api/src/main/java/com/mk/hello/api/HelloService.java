@@ -11,6 +11,7 @@ import com.lightbend.lagom.javadsl.api.Service;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
 import com.lightbend.lagom.javadsl.api.broker.Topic;
 import com.lightbend.lagom.javadsl.api.broker.kafka.KafkaProperties;
+import org.pcollections.PSequence;
 
 /**
  * The Hello service interface.
@@ -38,12 +39,19 @@ public interface HelloService extends Service {
    */
   Topic<HelloEvent> helloEvents();
 
+  /**
+   * Publishing progress of the topics on the node serving the call, per shard tag.
+   * Example: curl http://localhost:9000/api/hello/stats/topics
+   */
+  ServiceCall<NotUsed, PSequence<TopicStats>> topicStats();
+
   @Override
   default Descriptor descriptor() {
     // @formatter:off
     return named("hello").withCalls(
         pathCall("/api/hello/:id",  this::hello),
-        pathCall("/api/hello/:id", this::useGreeting)
+        pathCall("/api/hello/:id", this::useGreeting),
+        pathCall("/api/hello/stats/topics", this::topicStats)
       ).withTopics(
           topic("hello-events", this::helloEvents)
           // Kafka partitions messages, messages within the same partition will
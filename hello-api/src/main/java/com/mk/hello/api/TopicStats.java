@@ -0,0 +1,48 @@
+package com.mk.hello.api;
+
+import lombok.Value;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+
+import java.util.Optional;
+
+/**
+ * Progress of a topic publisher on one shard tag, as seen by the node running it.
+ */
+@Value
+@JsonDeserialize
+public final class TopicStats {
+
+  public final String topic;
+  public final String tag;
+  /**
+   * Offset of the last event acknowledged by the broker, empty before the first one.
+   */
+  public final Optional<String> lastOffset;
+  /**
+   * Events acknowledged by the broker since the node started publishing the tag.
+   */
+  public final long events;
+  /**
+   * Time between the last event being persisted and its acknowledgement by the broker, seen
+   * within a second.
+   */
+  public final long lagMillis;
+  /**
+   * Over the last minute.
+   */
+  public final double eventsPerSecond;
+
+  @JsonCreator
+  public TopicStats(String topic, String tag, Optional<String> lastOffset, long events, long lagMillis,
+                    double eventsPerSecond) {
+    this.topic = Preconditions.checkNotNull(topic, "topic");
+    this.tag = Preconditions.checkNotNull(tag, "tag");
+    this.lastOffset = Preconditions.checkNotNull(lastOffset, "lastOffset");
+    this.events = events;
+    this.lagMillis = lagMillis;
+    this.eventsPerSecond = eventsPerSecond;
+  }
+}
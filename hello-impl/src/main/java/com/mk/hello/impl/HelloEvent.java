@@ -2,7 +2,6 @@ package com.mk.hello.impl;
 
 import com.lightbend.lagom.javadsl.persistence.AggregateEvent;
 import com.lightbend.lagom.javadsl.persistence.AggregateEventShards;
-import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
 import com.lightbend.lagom.javadsl.persistence.AggregateEventTagger;
 import lombok.Value;
 
@@ -23,10 +22,10 @@ public interface HelloEvent extends Jsonable, AggregateEvent<HelloEvent> {
   /**
    * Tags are used for getting and publishing streams of events. Each event
    * will have this tag, and in this case, we are partitioning the tags into
-   * 4 shards, which means we can have 4 concurrent processors/publishers of
-   * events.
+   * hello.event-tag.shards shards, which means we can have that many concurrent
+   * processors/publishers of events.
    */
-  AggregateEventShards<HelloEvent> TAG = AggregateEventTag.sharded(HelloEvent.class, 4);
+  AggregateEventShards<HelloEvent> TAG = HelloEventTag.TAGS.current();
 
   /**
    * An event that represents a change in greeting message.
@@ -0,0 +1,20 @@
+package com.mk.hello.impl;
+
+import com.mk.tags.ResizableTag;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Shards of the hello events, see hello.event-tag.
+ */
+final class HelloEventTag {
+
+  /**
+   * The events are tagged when they are persisted, before any injected configuration is
+   * available, hence the static load.
+   */
+  static final ResizableTag<HelloEvent> TAGS =
+          ResizableTag.fromConfig(HelloEvent.class, ConfigFactory.load().getConfig("hello.event-tag"));
+
+  private HelloEventTag() {
+  }
+}
@@ -0,0 +1,30 @@
+package com.mk.hello.impl;
+
+import com.mk.tags.PreviousShardTagger;
+import com.mk.tags.ResizableTag;
+
+import java.util.Optional;
+
+/**
+ * Adds the previous shard tag to the hello events persisted during a resize of
+ * {@link HelloEventTag}.
+ */
+public class HelloPreviousShardTagger extends PreviousShardTagger<HelloEvent> {
+
+  public HelloPreviousShardTagger() {
+    super(HelloEvent.class);
+  }
+
+  @Override
+  protected ResizableTag<HelloEvent> tags() {
+    return HelloEventTag.TAGS;
+  }
+
+  @Override
+  protected Optional<String> entityId(HelloEvent event) {
+    // the name is the id of the entity
+    return event instanceof HelloEvent.GreetingMessageChanged
+            ? Optional.of(((HelloEvent.GreetingMessageChanged) event).name)
+            : Optional.empty();
+  }
+}
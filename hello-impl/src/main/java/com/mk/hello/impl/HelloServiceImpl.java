@@ -13,6 +13,11 @@ import com.lightbend.lagom.javadsl.persistence.PersistentEntityRegistry;
 import javax.inject.Inject;
 import com.mk.hello.api.GreetingMessage;
 import com.mk.hello.api.HelloService;
+import com.mk.hello.api.TopicStats;
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Implementation of the HelloService.
@@ -20,10 +25,15 @@ import com.mk.hello.api.HelloService;
 public class HelloServiceImpl implements HelloService {
 
   private final PersistentEntityRegistry persistentEntityRegistry;
+  private final TopicMetrics topicMetrics;
+  private final TopicHandover topicHandover;
 
   @Inject
-  public HelloServiceImpl(PersistentEntityRegistry persistentEntityRegistry) {
+  public HelloServiceImpl(PersistentEntityRegistry persistentEntityRegistry, TopicMetrics topicMetrics,
+                          TopicHandover topicHandover) {
     this.persistentEntityRegistry = persistentEntityRegistry;
+    this.topicMetrics = topicMetrics;
+    this.topicHandover = topicHandover;
     persistentEntityRegistry.register(HelloEntity.class);
   }
 
@@ -48,13 +58,23 @@ public class HelloServiceImpl implements HelloService {
 
   }
 
+  @Override
+  public ServiceCall<NotUsed, PSequence<TopicStats>> topicStats() {
+    return request -> CompletableFuture.completedFuture(TreePVector.from(topicMetrics.stats()));
+  }
+
   @Override
   public Topic<com.mk.hello.api.HelloEvent> helloEvents() {
-    // We want to publish all the shards of the hello event
-    return TopicProducer.taggedStreamWithOffset(HelloEvent.TAG.allTags(), (tag, offset) ->
+    // We want to publish all the shards of the hello event, including those of the earlier
+    // shard counts
+    return TopicProducer.taggedStreamWithOffset(HelloEventTag.TAGS.allTags(), (tag, offset) ->
 
-      // Load the event stream for the passed in shard tag
-      persistentEntityRegistry.eventStream(tag, offset).map(eventAndOffset -> {
+      // Load the event stream for the passed in shard tag, each event is published from the
+      // shard of the count it was persisted with, after the events of its entity before the
+      // handover to that count
+      persistentEntityRegistry.eventStream(tag, HelloEventTag.TAGS.startOf(tag, offset))
+        .via(HelloEventTag.TAGS.<HelloEvent>handover(tag, topicHandover.barrier("hello-events")))
+        .map(eventAndOffset -> {
 
       // Now we want to convert from the persisted event to the published event.
       // Although these two events are currently identical, in future they may
@@ -71,6 +91,8 @@ public class HelloServiceImpl implements HelloService {
         throw new IllegalArgumentException("Unknown event: " + eventAndOffset.first());
       }
 
+        topicMetrics.handed("hello-events", tag.tag(), eventAndOffset.second());
+
         // We return a pair of the translated event, and its offset, so that
         // Lagom can track which offsets have been published.
         return Pair.create(eventToPublish, eventAndOffset.second());
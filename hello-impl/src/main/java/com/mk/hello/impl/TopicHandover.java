@@ -0,0 +1,90 @@
+package com.mk.hello.impl;
+
+import akka.Done;
+import akka.actor.ActorSystem;
+import akka.pattern.PatternsCS;
+import akka.persistence.cassandra.query.javadsl.CassandraReadJournal;
+import akka.persistence.query.PersistenceQuery;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.spi.persistence.OffsetStore;
+import com.mk.tags.OffsetAdapter;
+import com.mk.tags.ResizableTag;
+import scala.compat.java8.FutureConverters;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Keeps the events of an entity in order across a resize of {@link HelloEventTag} for the topics
+ * published from the hello events, see {@link ResizableTag#handover}.
+ */
+@Singleton
+public class TopicHandover {
+
+  private static final FiniteDuration POLL_INTERVAL = FiniteDuration.create(1, TimeUnit.SECONDS);
+
+  private final OffsetStore offsetStore;
+  private final CassandraReadJournal journal;
+  private final ActorSystem system;
+  private final Materializer materializer;
+
+  @Inject
+  public TopicHandover(OffsetStore offsetStore, ActorSystem system, Materializer materializer) {
+    this.offsetStore = offsetStore;
+    this.journal = PersistenceQuery.get(system)
+            .getReadJournalFor(CassandraReadJournal.class, CassandraReadJournal.Identifier());
+    this.system = system;
+    this.materializer = materializer;
+  }
+
+  /**
+   * The barrier of the given topic: it is reached once the offsets the topic producer stored for
+   * the tags are followed by no event they are to publish. Checked every {@link #POLL_INTERVAL}.
+   */
+  ResizableTag.Barrier<HelloEvent> barrier(String topic) {
+    return tags -> {
+      List<CompletableFuture<Optional<Offset>>> pending = new ArrayList<>();
+      for (AggregateEventTag<HelloEvent> tag : tags) {
+        pending.add(FutureConverters.toJava(offsetStore.prepare(offsetId(topic), tag.tag()))
+                .thenCompose(dao -> firstAfter(tag, OffsetAdapter.toLagom(dao.loadedOffset())))
+                .toCompletableFuture());
+      }
+      return CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).thenCompose(ignored -> {
+        if (pending.stream().noneMatch(first -> first.join().isPresent())) {
+          return CompletableFuture.completedFuture(Done.getInstance());
+        }
+        return PatternsCS.after(POLL_INTERVAL, system.scheduler(), system.dispatcher(),
+                () -> barrier(topic).reached(tags));
+      });
+    };
+  }
+
+  /**
+   * The id the topic producer of Lagom stores the offsets of the given topic under.
+   */
+  static String offsetId(String topic) {
+    return "topicProducer-" + topic;
+  }
+
+  /**
+   * The offset of the first event of the tag after the given offset, if any.
+   */
+  private CompletionStage<Optional<Offset>> firstAfter(AggregateEventTag<HelloEvent> tag, Offset after) {
+    return journal.currentEventsByTag(tag.tag(), OffsetAdapter.toAkka(after))
+            .map(envelope -> OffsetAdapter.toLagom(envelope.offset()))
+            // the query may start with the event at the offset itself
+            .filter(offset -> !offset.equals(after) && HelloEventTag.TAGS.accepts(tag, offset))
+            .runWith(Sink.headOption(), materializer);
+  }
+}
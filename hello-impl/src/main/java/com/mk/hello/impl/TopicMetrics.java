@@ -0,0 +1,197 @@
+package com.mk.hello.impl;
+
+import akka.actor.ActorSystem;
+import com.datastax.driver.core.utils.UUIDs;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.spi.persistence.OffsetStore;
+import com.mk.hello.api.TopicStats;
+import com.mk.tags.OffsetAdapter;
+import scala.compat.java8.FutureConverters;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Node local metrics of the topic publishers, per topic and shard tag, for the tags published
+ * from this node.
+ * <p>
+ * An event is counted once the broker has acknowledged it. The topic producer stores the offset
+ * of an event once the broker has acknowledged it, so the events handed to the broker are
+ * collected in batches of one {@link #POLL_INTERVAL}, and a batch is counted once the stored
+ * offset, checked every {@link #POLL_INTERVAL}, has reached its last event. The events of a tag
+ * are handed in the order of their offsets, so only the last offset of every batch is kept.
+ */
+@Singleton
+public class TopicMetrics {
+
+  private static final long RATE_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+  private static final FiniteDuration POLL_INTERVAL = FiniteDuration.create(1, TimeUnit.SECONDS);
+
+  private final OffsetStore offsetStore;
+  private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+  @Inject
+  public TopicMetrics(OffsetStore offsetStore, ActorSystem system) {
+    this.offsetStore = offsetStore;
+    system.scheduler().schedule(POLL_INTERVAL, POLL_INTERVAL, this::poll, system.dispatcher());
+  }
+
+  /**
+   * Records an event of the tag handed to the broker, it is counted once the broker has
+   * acknowledged it.
+   */
+  void handed(String topic, String tag, Offset offset) {
+    recorders.computeIfAbsent(topic + "/" + tag, ignored -> new Recorder(topic, tag)).handed(offset);
+  }
+
+  /**
+   * Counts the handed events up to the offsets the topic producers have stored.
+   */
+  private void poll() {
+    for (Recorder recorder : recorders.values()) {
+      if (recorder.hasHanded()) {
+        FutureConverters.toJava(offsetStore.prepare(TopicHandover.offsetId(recorder.topic), recorder.tag))
+                .thenAccept(dao -> recorder.stored(OffsetAdapter.toLagom(dao.loadedOffset())));
+      }
+    }
+  }
+
+  public List<TopicStats> stats() {
+    List<TopicStats> stats = new ArrayList<>();
+    for (Recorder recorder : recorders.values()) {
+      stats.add(recorder.stats());
+    }
+    return stats;
+  }
+
+  /**
+   * Orders the offsets of a tag, time based uuids by their time first.
+   */
+  private static int compare(Offset a, Offset b) {
+    if (a instanceof Offset.TimeBasedUUID && b instanceof Offset.TimeBasedUUID) {
+      UUID first = ((Offset.TimeBasedUUID) a).value();
+      UUID second = ((Offset.TimeBasedUUID) b).value();
+      int byTime = Long.compare(first.timestamp(), second.timestamp());
+      return byTime != 0 ? byTime : first.compareTo(second);
+    }
+    if (a instanceof Offset.Sequence && b instanceof Offset.Sequence) {
+      return Long.compare(((Offset.Sequence) a).value(), ((Offset.Sequence) b).value());
+    }
+    // Offset.NONE is before any event
+    return Boolean.compare(a != Offset.NONE, b != Offset.NONE);
+  }
+
+  private static final class Recorder {
+
+    private final String topic;
+    private final String tag;
+
+    // handed to the broker and not acknowledged yet, oldest first
+    private final Deque<Batch> handed = new ArrayDeque<>();
+    private Offset lastOffset = Offset.NONE;
+    private long lagMillis;
+    private long events;
+    // the events counted by the polls of the last rate window, oldest first
+    private final Deque<Count> counted = new ArrayDeque<>();
+
+    Recorder(String topic, String tag) {
+      this.topic = topic;
+      this.tag = tag;
+    }
+
+    synchronized void handed(Offset offset) {
+      while (!handed.isEmpty() && compare(handed.getLast().last, offset) >= 0) {
+        // handed again, the publisher restarted from an earlier offset
+        handed.removeLast();
+      }
+      long now = System.nanoTime();
+      Batch batch = handed.peekLast();
+      if (batch == null || now - batch.startedAt >= POLL_INTERVAL.toNanos()) {
+        batch = new Batch(now);
+        handed.add(batch);
+      }
+      batch.last = offset;
+      batch.events++;
+    }
+
+    synchronized boolean hasHanded() {
+      return !handed.isEmpty();
+    }
+
+    /**
+     * Counts the batches handed up to the given stored offset as published.
+     */
+    synchronized void stored(Offset offset) {
+      long published = 0;
+      while (!handed.isEmpty() && compare(handed.getFirst().last, offset) <= 0) {
+        published += handed.remove().events;
+      }
+      if (published == 0) {
+        return;
+      }
+      lastOffset = offset;
+      if (offset instanceof Offset.TimeBasedUUID) {
+        lagMillis = Math.max(System.currentTimeMillis() - UUIDs.unixTimestamp(((Offset.TimeBasedUUID) offset).value()), 0);
+      }
+      events += published;
+      long now = System.nanoTime();
+      counted.add(new Count(now, published));
+      expire(now);
+    }
+
+    private void expire(long now) {
+      while (!counted.isEmpty() && now - counted.getFirst().at > RATE_WINDOW_NANOS) {
+        counted.remove();
+      }
+    }
+
+    synchronized TopicStats stats() {
+      long now = System.nanoTime();
+      expire(now);
+      long inWindow = counted.stream().mapToLong(count -> count.events).sum();
+      double rate = inWindow * (double) TimeUnit.SECONDS.toNanos(1) / RATE_WINDOW_NANOS;
+
+      Optional<String> offset = lastOffset instanceof Offset.TimeBasedUUID
+              ? Optional.of(((Offset.TimeBasedUUID) lastOffset).value().toString())
+              : Optional.empty();
+      return new TopicStats(topic, tag, offset, events, lagMillis, rate);
+    }
+  }
+
+  /**
+   * Events handed within one poll interval.
+   */
+  private static final class Batch {
+    final long startedAt;
+    Offset last;
+    long events;
+
+    Batch(long startedAt) {
+      this.startedAt = startedAt;
+    }
+  }
+
+  /**
+   * Events counted by one poll.
+   */
+  private static final class Count {
+    final long at;
+    final long events;
+
+    Count(long at, long events) {
+      this.at = at;
+      this.events = events;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package com.mk.stream.api;
+
+import lombok.Value;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+/**
+ * State of the adaptive concurrency limit of the hello calls of directStream on one node.
+ */
+@Value
+@JsonDeserialize
+public final class ConcurrencyStats {
+
+  /**
+   * Calls allowed in flight at the same time.
+   */
+  public final int limit;
+  public final int minLimit;
+  public final int maxLimit;
+  public final int inFlight;
+  /**
+   * Calls waiting for the limit.
+   */
+  public final int waiting;
+  /**
+   * Moving average of the call latency the limit reacts to.
+   */
+  public final long latencyMicros;
+  /**
+   * A call slower than this counts as an overload.
+   */
+  public final long maxLatencyMicros;
+  public final long calls;
+  /**
+   * Calls that failed or were slower than maxLatencyMicros, each one lowered the limit.
+   */
+  public final long overloads;
+
+  @JsonCreator
+  public ConcurrencyStats(int limit, int minLimit, int maxLimit, int inFlight, int waiting,
+                          long latencyMicros, long maxLatencyMicros, long calls, long overloads) {
+    this.limit = limit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.inFlight = inFlight;
+    this.waiting = waiting;
+    this.latencyMicros = latencyMicros;
+    this.maxLatencyMicros = maxLatencyMicros;
+    this.calls = calls;
+    this.overloads = overloads;
+  }
+}
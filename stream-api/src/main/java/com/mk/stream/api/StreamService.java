@@ -2,12 +2,14 @@ package com.mk.stream.api;
 
 import static com.lightbend.lagom.javadsl.api.Service.named;
 import static com.lightbend.lagom.javadsl.api.Service.namedCall;
+import static com.lightbend.lagom.javadsl.api.Service.restCall;
 
 import akka.NotUsed;
 import akka.stream.javadsl.Source;
 import com.lightbend.lagom.javadsl.api.Descriptor;
 import com.lightbend.lagom.javadsl.api.Service;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
+import com.lightbend.lagom.javadsl.api.transport.Method;
 
 /**
  * The stream interface.
@@ -32,12 +34,20 @@ public interface StreamService extends Service {
    */
   ServiceCall<Source<String, NotUsed>, Source<String, NotUsed>> autonomousStream();
 
+  /**
+   * Gets the concurrency limit of the hello calls of directStream on the node
+   * serving the call, and the latency it reacts to. Example:
+   * curl http://localhost:9000/api/stream/stats/direct-stream
+   */
+  ServiceCall<NotUsed, ConcurrencyStats> directStreamStats();
+
   @Override
   default Descriptor descriptor() {
     return named("stream")
             .withCalls(
               namedCall("direct-stream", this::directStream),
-              namedCall("auto-stream", this::autonomousStream)
+              namedCall("auto-stream", this::autonomousStream),
+              restCall(Method.GET, "/api/stream/stats/direct-stream", this::directStreamStats)
             ).withAutoAcl(true);
   }
 }
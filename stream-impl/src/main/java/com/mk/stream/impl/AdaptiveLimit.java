@@ -0,0 +1,150 @@
+package com.mk.stream.impl;
+
+import com.mk.stream.api.ConcurrencyStats;
+import com.typesafe.config.Config;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Concurrency limit of the hello calls of directStream, shared by all the streams of the node
+ * and adapted with AIMD to the latency of the calls. A call that fails or takes longer than
+ * max-latency multiplies the limit by backoff-ratio, any other call raises it by one while at
+ * least half of the limit is in use. The limit stays between min-limit and max-limit.
+ * <p>
+ * The limit backs off once per congestion: the calls in flight when it backs off were started
+ * under the higher limit, their overloads are counted but only those of calls started since
+ * back off again.
+ */
+@Singleton
+public class AdaptiveLimit {
+
+  // weight of the latest call in the moving average of the latency
+  private static final double LATENCY_SMOOTHING = 0.1;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final long maxLatencyNanos;
+  private final double backoffRatio;
+
+  private double limit;
+  private int inFlight;
+  private final Queue<CompletableFuture<Long>> waiting = new ArrayDeque<>();
+  private double latencyNanos;
+  private long calls;
+  private long overloads;
+  // start time of the calls the next overload may back off for
+  private long backedOffAt;
+
+  @Inject
+  public AdaptiveLimit(Config config) {
+    this(config.getInt("stream.direct-stream.concurrency.initial-limit"),
+        config.getInt("stream.direct-stream.concurrency.min-limit"),
+        config.getInt("stream.direct-stream.concurrency.max-limit"),
+        config.getDuration("stream.direct-stream.concurrency.max-latency", TimeUnit.NANOSECONDS),
+        config.getDouble("stream.direct-stream.concurrency.backoff-ratio"));
+  }
+
+  AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, long maxLatencyNanos, double backoffRatio) {
+    if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException("Expected 1 <= min-limit <= initial-limit <= max-limit");
+    }
+    if (backoffRatio <= 0 || backoffRatio >= 1) {
+      throw new IllegalArgumentException("backoff-ratio must be between 0 and 1");
+    }
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.maxLatencyNanos = maxLatencyNanos;
+    this.backoffRatio = backoffRatio;
+    this.backedOffAt = System.nanoTime();
+  }
+
+  /**
+   * Most calls ever allowed in flight, the parallelism to run the calls with.
+   */
+  int maxLimit() {
+    return maxLimit;
+  }
+
+  /**
+   * Runs the call once the limit allows it.
+   */
+  <T> CompletionStage<T> call(Supplier<CompletionStage<T>> call) {
+    return acquire().thenCompose(startedAt -> {
+      CompletionStage<T> result;
+      try {
+        result = call.get();
+      } catch (RuntimeException e) {
+        release(startedAt, false);
+        throw e;
+      }
+      return result.whenComplete((value, failure) -> release(startedAt, failure == null));
+    });
+  }
+
+  /**
+   * Completes with the start time of the call once it may run.
+   */
+  private synchronized CompletionStage<Long> acquire() {
+    if (inFlight < (int) limit) {
+      inFlight++;
+      return CompletableFuture.completedFuture(System.nanoTime());
+    }
+    CompletableFuture<Long> waiter = new CompletableFuture<>();
+    waiting.add(waiter);
+    return waiter;
+  }
+
+  private void release(long startedAt, boolean succeeded) {
+    long latency = System.nanoTime() - startedAt;
+    List<CompletableFuture<Long>> started = new ArrayList<>();
+    synchronized (this) {
+      sample(startedAt, latency, succeeded);
+      inFlight--;
+      while (!waiting.isEmpty() && inFlight < (int) limit) {
+        inFlight++;
+        started.add(waiting.remove());
+      }
+    }
+    // outside of the lock, the waiters run their calls right away
+    for (CompletableFuture<Long> waiter : started) {
+      waiter.complete(System.nanoTime());
+    }
+  }
+
+  /**
+   * Adapts the limit to a finished call, still counted in flight.
+   */
+  private synchronized void sample(long startedAt, long latency, boolean succeeded) {
+    calls++;
+    latencyNanos = calls == 1 ? latency : latencyNanos + LATENCY_SMOOTHING * (latency - latencyNanos);
+    if (!succeeded || latency > maxLatencyNanos) {
+      overloads++;
+      if (startedAt - backedOffAt >= 0) {
+        limit = Math.max(minLimit, limit * backoffRatio);
+        backedOffAt = System.nanoTime();
+      }
+    } else if (inFlight * 2 >= (int) limit) {
+      limit = Math.min(maxLimit, limit + 1);
+    }
+  }
+
+  synchronized int limit() {
+    return (int) limit;
+  }
+
+  public synchronized ConcurrencyStats stats() {
+    return new ConcurrencyStats((int) limit, minLimit, maxLimit, inFlight, waiting.size(),
+        TimeUnit.NANOSECONDS.toMicros((long) latencyNanos), TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos),
+        calls, overloads);
+  }
+}
@@ -1,26 +1,74 @@
 package com.mk.stream.impl;
 
 import akka.Done;
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.cluster.Cluster;
+import akka.cluster.ddata.DistributedData;
+import akka.cluster.ddata.Key;
+import akka.cluster.ddata.LWWMap;
+import akka.cluster.ddata.LWWMapKey;
+import akka.cluster.ddata.Replicator;
+import akka.stream.Materializer;
 import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.typesafe.config.Config;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The greeting messages are stored in greeting_message and served from a node local map, which
+ * is loaded from the table when the service starts and kept up to date by the
+ * {@link StreamSubscriber}. Reading a message does no I/O.
+ * <p>
+ * The subscriber of the cluster consumes every change on one node only. With
+ * stream.greetings.replication = ddata the changes are replicated to the maps of the other nodes
+ * with Akka Distributed Data, with local the other nodes only see them after a restart.
+ */
 @Singleton
 public class StreamRepository {
+  private static final Key<LWWMap<String, String>> MESSAGES_KEY = LWWMapKey.create("greeting-messages");
+
   private final CassandraSession uninitialisedSession;
+  private final Map<String, String> messages = new ConcurrentHashMap<>();
+  private final Optional<ActorRef> replicator;
+  private final Cluster node;
+  private final Materializer materializer;
 
   // Will return the session when the Cassandra tables have been successfully created
   private volatile CompletableFuture<CassandraSession> initialisedSession;
 
+  // Will complete when the stored messages have been successfully loaded
+  private volatile CompletableFuture<Done> loaded;
+
   @Inject
-  public StreamRepository(CassandraSession uninitialisedSession) {
+  public StreamRepository(CassandraSession uninitialisedSession, ActorSystem system, Materializer materializer, Config config) {
     this.uninitialisedSession = uninitialisedSession;
-    // Eagerly create the session
-    session();
+    this.node = Cluster.get(system);
+    this.materializer = materializer;
+    String replication = config.getString("stream.greetings.replication");
+    switch (replication) {
+      case "local":
+        this.replicator = Optional.empty();
+        break;
+      case "ddata":
+        ActorRef ddata = DistributedData.get(system).replicator();
+        Map<String, String> local = messages;
+        this.replicator = Optional.of(ddata);
+        system.actorOf(Props.create(Replica.class, () -> new Replica(ddata, local)), "greeting-replica");
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown greeting replication: " + replication);
+    }
+    // Eagerly create the session and load the messages
+    loaded();
   }
 
   private CompletionStage<CassandraSession> session() {
@@ -34,16 +82,61 @@ public class StreamRepository {
     return initialisedSession;
   }
 
+  /**
+   * Completes once the messages stored when the service started are in the map.
+   */
+  public synchronized CompletionStage<Done> loaded() {
+    // If the messages were not loaded yet, or if the load failed, then load them again
+    if (loaded == null || loaded.isCompletedExceptionally()) {
+      // changes received meanwhile are newer
+      loaded = session().thenCompose(session ->
+          session.select("SELECT name, message FROM greeting_message")
+              .runForeach(row -> messages.putIfAbsent(row.getString("name"), row.getString("message")), materializer)
+      ).toCompletableFuture();
+    }
+    return loaded;
+  }
+
   public CompletionStage<Done> updateMessage(String name, String message) {
     return session().thenCompose(session ->
         session.executeWrite("INSERT INTO greeting_message (name, message) VALUES (?, ?)",
             name, message)
-    );
+    ).thenApply(done -> {
+      messages.put(name, message);
+      replicator.ifPresent(r -> r.tell(new Replicator.Update<>(MESSAGES_KEY, LWWMap.create(), Replicator.writeLocal(),
+          map -> map.put(node, name, message)), ActorRef.noSender()));
+      return done;
+    });
   }
 
-  public CompletionStage<Optional<String>> getMessage(String name) {
-    return session().thenCompose(session ->
-        session.selectOne("SELECT message FROM greeting_message WHERE name = ?", name)
-    ).thenApply(maybeRow -> maybeRow.map(row -> row.getString("message")));
+  public Optional<String> getMessage(String name) {
+    return Optional.ofNullable(messages.get(name));
+  }
+
+  /**
+   * Copies the replicated messages into the local map.
+   */
+  static final class Replica extends AbstractActor {
+    private final ActorRef replicator;
+    private final Map<String, String> messages;
+
+    Replica(ActorRef replicator, Map<String, String> messages) {
+      this.replicator = replicator;
+      this.messages = messages;
+    }
+
+    @Override
+    public void preStart() {
+      replicator.tell(new Replicator.Subscribe<>(MESSAGES_KEY, getSelf()), ActorRef.noSender());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Receive createReceive() {
+      return receiveBuilder()
+          .match(Replicator.Changed.class, changed ->
+              messages.putAll(((Replicator.Changed<LWWMap<String, String>>) changed).get(MESSAGES_KEY).getEntries()))
+          .build();
+    }
   }
 }
@@ -4,6 +4,7 @@ import akka.NotUsed;
 import akka.stream.javadsl.Source;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
 import com.mk.hello.api.HelloService;
+import com.mk.stream.api.ConcurrencyStats;
 import com.mk.stream.api.StreamService;
 
 import javax.inject.Inject;
@@ -17,25 +18,32 @@ public class StreamServiceImpl implements StreamService {
 
   private final HelloService helloService;
   private final StreamRepository repository;
+  private final AdaptiveLimit limit;
 
   @Inject
-  public StreamServiceImpl(HelloService helloService, StreamRepository repository) {
+  public StreamServiceImpl(HelloService helloService, StreamRepository repository, AdaptiveLimit limit) {
     this.helloService = helloService;
     this.repository = repository;
+    this.limit = limit;
   }
 
   @Override
   public ServiceCall<Source<String, NotUsed>, Source<String, NotUsed>> directStream() {
+    // up to the adaptive limit of the node, summed over all streams, at the same time
     return hellos -> completedFuture(
-      hellos.mapAsync(8, name ->  helloService.hello(name).invoke()));
+      hellos.mapAsync(limit.maxLimit(), name -> limit.call(() -> helloService.hello(name).invoke())));
   }
 
   @Override
   public ServiceCall<Source<String, NotUsed>, Source<String, NotUsed>> autonomousStream() {
-    return hellos -> completedFuture(
-        hellos.mapAsync(8, name -> repository.getMessage(name).thenApply( message ->
-            String.format("%s, %s!", message.orElse("Hello"), name)
-        ))
+    // the messages are read from the local map of the repository, only the start waits for it to be loaded
+    return hellos -> repository.loaded().thenApply(done ->
+        hellos.map(name -> String.format("%s, %s!", repository.getMessage(name).orElse("Hello"), name))
     );
   }
+
+  @Override
+  public ServiceCall<NotUsed, ConcurrencyStats> directStreamStats() {
+    return req -> completedFuture(limit.stats());
+  }
 }
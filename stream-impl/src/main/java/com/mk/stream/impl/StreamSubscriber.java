@@ -1,38 +1,161 @@
 package com.mk.stream.impl;
 
 import akka.Done;
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.Materializer;
 import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
 import com.mk.hello.api.HelloEvent;
 import com.mk.hello.api.HelloService;
+import com.typesafe.config.Config;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import scala.concurrent.duration.FiniteDuration;
 
 /**
  * This subscribes to the HelloService event stream.
+ * <p>
+ * With stream.subscriber.conflate enabled, the changes arriving while a write is in flight are
+ * merged into the next write, which only holds the latest message of every name. A backlog then
+ * costs about one write per distinct name instead of one per event, with at most
+ * stream.subscriber.conflate.write-parallelism of them in flight. The merged events are
+ * acknowledged together once the write is done.
+ * <p>
+ * With stream.subscriber.partitioned enabled, the events are grouped within a short window and
+ * the changes of a group are split by name into lanes. The lanes write in parallel, a lane writes
+ * every change of the group one after the other, after its previous group, so the changes of a
+ * name are applied in order and none is skipped. A group is
+ * acknowledged once it and all earlier groups are written, which is when their offsets are
+ * committed.
  */
 public class StreamSubscriber {
 
+  private final StreamRepository repository;
+  private final Materializer materializer;
+
   @Inject
-  public StreamSubscriber(HelloService helloService, StreamRepository repository) {
+  public StreamSubscriber(HelloService helloService, StreamRepository repository, Materializer materializer, Config config) {
+    this.repository = repository;
+    this.materializer = materializer;
+
+    Flow<HelloEvent, Done, NotUsed> flow;
+    if (config.getBoolean("stream.subscriber.partitioned.enabled")) {
+      flow = partitioned(config.getConfig("stream.subscriber.partitioned"));
+    } else if (config.getBoolean("stream.subscriber.conflate.enabled")) {
+      flow = conflated(config.getInt("stream.subscriber.conflate.max-events"),
+          config.getInt("stream.subscriber.conflate.write-parallelism"));
+    } else {
+      flow = serial();
+    }
+
     // Create a subscriber
     helloService.helloEvents().subscribe()
       // And subscribe to it with at least once processing semantics.
-      .atLeastOnce(
-        // Create a flow that emits a Done for each message it processes
-        Flow.<HelloEvent>create().mapAsync(1, event -> {
-
-          if (event instanceof HelloEvent.GreetingMessageChanged) {
-            HelloEvent.GreetingMessageChanged messageChanged = (HelloEvent.GreetingMessageChanged) event;
-            // Update the message
-            return repository.updateMessage(messageChanged.getName(), messageChanged.getMessage());
-
-          } else {
-            // Ignore all other events
-            return CompletableFuture.completedFuture(Done.getInstance());
+      .atLeastOnce(flow);
+  }
+
+  /**
+   * Emits a Done for each message once it is processed, one message at a time.
+   */
+  private Flow<HelloEvent, Done, NotUsed> serial() {
+    return Flow.<HelloEvent>create().mapAsync(1, event -> {
+
+      if (event instanceof HelloEvent.GreetingMessageChanged) {
+        HelloEvent.GreetingMessageChanged messageChanged = (HelloEvent.GreetingMessageChanged) event;
+        // Update the message
+        return repository.updateMessage(messageChanged.getName(), messageChanged.getMessage());
+
+      } else {
+        // Ignore all other events
+        return CompletableFuture.completedFuture(Done.getInstance());
+      }
+    });
+  }
+
+  /**
+   * Emits a Done for each message, in order, once the write holding its change or a later change
+   * of the same name is done. Up to maxEvents messages are merged while a write is in flight.
+   */
+  private Flow<HelloEvent, Done, NotUsed> conflated(int maxEvents, int parallelism) {
+    return Flow.<HelloEvent>create()
+        .batch(maxEvents, event -> new Changes().add(event), Changes::add)
+        .mapAsync(1, changes -> updateMessages(changes.messages, parallelism).thenApply(done -> changes.events))
+        .mapConcat(events -> Collections.nCopies(events, Done.getInstance()));
+  }
+
+  /**
+   * Emits a Done for each message, in order, once its group and all earlier groups are written.
+   */
+  private Flow<HelloEvent, Done, NotUsed> partitioned(Config config) {
+    int lanes = config.getInt("lanes");
+    FiniteDuration window = FiniteDuration.create(config.getDuration("window", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+    // last write of every lane, the next write of the lane is chained to it, shared by the restarts of the stream
+    List<CompletionStage<Done>> tails = new ArrayList<>(Collections.nCopies(lanes, CompletableFuture.completedFuture(Done.getInstance())));
+
+    return Flow.<HelloEvent>create()
+        .groupedWithin(config.getInt("max-events"), window)
+        // invoked for one group at a time, in order, while up to lanes groups are being written
+        .mapAsync(lanes, group -> {
+          // every change of the group is written, in the order of the events
+          Map<Integer, List<Pair<String, String>>> changes = new HashMap<>();
+          for (HelloEvent event : group) {
+            if (event instanceof HelloEvent.GreetingMessageChanged) {
+              HelloEvent.GreetingMessageChanged messageChanged = (HelloEvent.GreetingMessageChanged) event;
+              changes.computeIfAbsent(Math.floorMod(messageChanged.getName().hashCode(), lanes), lane -> new ArrayList<>())
+                  .add(Pair.create(messageChanged.getName(), messageChanged.getMessage()));
+            }
+          }
+
+          List<CompletableFuture<Done>> writes = new ArrayList<>();
+          for (Map.Entry<Integer, List<Pair<String, String>>> lane : changes.entrySet()) {
+            // a failed write fails its group and the stream, the restarted stream goes on from the committed offset
+            CompletionStage<Done> write = tails.get(lane.getKey()).exceptionally(failure -> Done.getInstance());
+            for (Pair<String, String> change : lane.getValue()) {
+              write = write.thenCompose(done -> repository.updateMessage(change.first(), change.second()));
+            }
+            tails.set(lane.getKey(), write);
+            writes.add(write.toCompletableFuture());
           }
+          return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).thenApply(done -> group.size());
         })
-      );
+        .mapConcat(size -> Collections.nCopies(size, Done.getInstance()));
+  }
+
+  /**
+   * Writes the messages, at most parallelism of them at the same time.
+   */
+  private CompletionStage<Done> updateMessages(Map<String, String> messages, int parallelism) {
+    return Source.from(messages.entrySet())
+        .mapAsyncUnordered(parallelism, change -> repository.updateMessage(change.getKey(), change.getValue()))
+        .runWith(Sink.ignore(), materializer);
+  }
+
+  /**
+   * The latest message of every name changed by a run of events, and the number of events.
+   */
+  static final class Changes {
+    final Map<String, String> messages = new LinkedHashMap<>();
+    int events;
 
+    Changes add(HelloEvent event) {
+      if (event instanceof HelloEvent.GreetingMessageChanged) {
+        HelloEvent.GreetingMessageChanged messageChanged = (HelloEvent.GreetingMessageChanged) event;
+        messages.put(messageChanged.getName(), messageChanged.getMessage());
+      }
+      events++;
+      return this;
+    }
   }
 }
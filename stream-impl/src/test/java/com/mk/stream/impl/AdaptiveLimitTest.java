@@ -0,0 +1,108 @@
+package com.mk.stream.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveLimitTest {
+
+  private static final long MAX_LATENCY = TimeUnit.SECONDS.toNanos(10);
+
+  @Test
+  public void testCallsBeyondTheLimitWait() {
+    AdaptiveLimit limit = new AdaptiveLimit(2, 1, 2, MAX_LATENCY, 0.5);
+    List<CompletableFuture<String>> calls = new ArrayList<>();
+    List<CompletionStage<String>> results = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      CompletableFuture<String> call = new CompletableFuture<>();
+      calls.add(call);
+      results.add(limit.call(() -> call));
+    }
+    assertEquals(2, limit.stats().inFlight);
+    assertEquals(1, limit.stats().waiting);
+
+    calls.get(0).complete("first");
+    assertEquals("first", results.get(0).toCompletableFuture().join());
+    assertEquals(2, limit.stats().inFlight);
+    assertEquals(0, limit.stats().waiting);
+
+    calls.get(1).complete("second");
+    calls.get(2).complete("third");
+    assertEquals("third", results.get(2).toCompletableFuture().join());
+    assertEquals(0, limit.stats().inFlight);
+  }
+
+  @Test
+  public void testLimitGrowsWhileInUse() {
+    AdaptiveLimit limit = new AdaptiveLimit(2, 1, 4, MAX_LATENCY, 0.5);
+    // a single call at a time uses less than half of the limit from 3 on
+    for (int i = 0; i < 10; i++) {
+      limit.call(() -> CompletableFuture.completedFuture("hello")).toCompletableFuture().join();
+    }
+    assertEquals(3, limit.limit());
+
+    for (int i = 0; i < 10; i++) {
+      CompletableFuture<String> first = new CompletableFuture<>();
+      CompletableFuture<String> second = new CompletableFuture<>();
+      limit.call(() -> first);
+      limit.call(() -> second);
+      first.complete("hello");
+      second.complete("hello");
+    }
+    assertEquals(4, limit.limit());
+  }
+
+  @Test
+  public void testLimitBacksOffOnFailures() {
+    AdaptiveLimit limit = new AdaptiveLimit(8, 2, 8, MAX_LATENCY, 0.5);
+    CompletableFuture<String> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new RuntimeException("overloaded"));
+
+    assertTrue(limit.call(() -> failed).toCompletableFuture().isCompletedExceptionally());
+    assertEquals(4, limit.limit());
+    limit.call(() -> failed);
+    assertEquals(2, limit.limit());
+    limit.call(() -> failed);
+    assertEquals(2, limit.limit());
+    assertEquals(3, limit.stats().overloads);
+  }
+
+  @Test
+  public void testLimitBacksOffOncePerCongestion() {
+    AdaptiveLimit limit = new AdaptiveLimit(8, 1, 8, MAX_LATENCY, 0.5);
+    List<CompletableFuture<String>> calls = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      CompletableFuture<String> call = new CompletableFuture<>();
+      calls.add(call);
+      limit.call(() -> call);
+    }
+    // the calls in flight fail together, only the first one backs off
+    for (CompletableFuture<String> call : calls) {
+      call.completeExceptionally(new RuntimeException("overloaded"));
+    }
+    assertEquals(4, limit.limit());
+    assertEquals(4, limit.stats().overloads);
+
+    CompletableFuture<String> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new RuntimeException("overloaded"));
+    limit.call(() -> failed);
+    assertEquals(2, limit.limit());
+  }
+
+  @Test
+  public void testSlowCallsCountAsOverloads() {
+    AdaptiveLimit limit = new AdaptiveLimit(4, 1, 4, 0, 0.5);
+    CompletableFuture<String> call = new CompletableFuture<>();
+    CompletionStage<String> result = limit.call(() -> call);
+    call.complete("slow");
+    assertEquals("slow", result.toCompletableFuture().join());
+    assertEquals(2, limit.limit());
+  }
+}
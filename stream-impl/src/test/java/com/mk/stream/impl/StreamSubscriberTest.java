@@ -0,0 +1,47 @@
+package com.mk.stream.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.mk.hello.api.HelloEvent;
+
+public class StreamSubscriberTest {
+
+  private static HelloEvent changed(String name, String message) {
+    return new HelloEvent.GreetingMessageChanged(name, message);
+  }
+
+  @Test
+  public void testChangesKeepTheLatestMessageOfEveryName() {
+    StreamSubscriber.Changes changes = new StreamSubscriber.Changes()
+        .add(changed("alice", "Hi"))
+        .add(changed("bob", "Hello"))
+        .add(changed("alice", "Hey"));
+
+    Map<String, String> expected = new LinkedHashMap<>();
+    expected.put("alice", "Hey");
+    expected.put("bob", "Hello");
+    assertEquals(expected, changes.messages);
+    // in the order the names were first changed
+    assertEquals(Arrays.asList("alice", "bob"), Arrays.asList(changes.messages.keySet().toArray()));
+    assertEquals(3, changes.events);
+  }
+
+  @Test
+  public void testChangesCountTheEventsThatChangeNoMessage() {
+    HelloEvent other = () -> "carol";
+    StreamSubscriber.Changes changes = new StreamSubscriber.Changes()
+        .add(other)
+        .add(changed("alice", "Hi"))
+        .add(other);
+
+    assertEquals(1, changes.messages.size());
+    assertEquals("Hi", changes.messages.get("alice"));
+    assertEquals(3, changes.events);
+  }
+}